@@ -1,7 +1,13 @@
 package com.wzz.better_entity_render;
 
+import com.wzz.better_entity_render.occlusion.OccluderCache;
+import net.minecraft.world.level.Level;
 import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.client.event.RenderLevelStageEvent;
 import net.minecraftforge.event.GameShuttingDownEvent;
+import net.minecraftforge.event.entity.EntityLeaveLevelEvent;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.event.level.LevelEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 
@@ -12,4 +18,34 @@ public final class ClientEventHandler {
     public static void onGameShutdown(GameShuttingDownEvent event) {
         EntityOcclusionCuller.shutdown();
     }
-}
\ No newline at end of file
+
+    @SubscribeEvent
+    public static void onRenderLevelStage(RenderLevelStageEvent event) {
+        if (event.getStage() == RenderLevelStageEvent.Stage.AFTER_ENTITIES) {
+            ShadowBatch.flush();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onEntityLeave(EntityLeaveLevelEvent event) {
+        if (event.getLevel().isClientSide()) {
+            EntityOcclusionCuller.onEntityRemoved(event.getEntity(), event.getLevel());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkUnload(ChunkEvent.Unload event) {
+        if (event.getLevel() instanceof Level level && level.isClientSide()) {
+            OccluderCache.invalidateColumn(level, event.getChunk().getPos().x, event.getChunk().getPos().z);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        if (event.getLevel() instanceof Level level && level.isClientSide()) {
+            OccluderCache.clear();
+            EntityOcclusionCuller.onLevelUnload(level);
+            DepthBufferCuller.onLevelUnload(level);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.wzz.better_entity_render;
+
+import com.wzz.better_entity_render.collision.BlockShapeCache;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+/** 客户端与专用服务端共用的事件 */
+@Mod.EventBusSubscriber(modid = "better_entity_render", bus = Mod.EventBusSubscriber.Bus.FORGE)
+public final class CommonEventHandler {
+
+    // 完整区块加载 / 卸载不经过 setBlockState，按区块列记录，让附近静止实体的碰撞结果失效
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkEvent.Load event) {
+        if (event.getLevel() instanceof Level level && event.getChunk() instanceof LevelChunk chunk) {
+            BlockShapeCache.of(level).chunkChanged(chunk.getPos().x, chunk.getPos().z);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkUnload(ChunkEvent.Unload event) {
+        if (event.getLevel() instanceof Level level && event.getChunk() instanceof LevelChunk chunk) {
+            BlockShapeCache.of(level).chunkChanged(chunk.getPos().x, chunk.getPos().z);
+        }
+    }
+}
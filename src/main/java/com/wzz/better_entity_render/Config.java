@@ -6,30 +6,55 @@ public class Config {
     private static final ForgeConfigSpec.Builder BUILDER = new ForgeConfigSpec.Builder();
 
     public static final ForgeConfigSpec.BooleanValue SHADOW_RENDER;
+    public static final ForgeConfigSpec.DoubleValue  SHADOW_MAX_DISTANCE;
 
     public static final ForgeConfigSpec.BooleanValue OCCLUSION_CULL;
+    public static final ForgeConfigSpec.EnumValue<OcclusionEngine> OCCLUSION_ENGINE;
+    public static final ForgeConfigSpec.BooleanValue OCCLUSION_STATS;
     public static final ForgeConfigSpec.BooleanValue COLLISION_OPT;
+    public static final ForgeConfigSpec.BooleanValue COLLISION_REST;
 
     static {
         ForgeConfigSpec.Builder builder = BUILDER;
         builder.push("shadow");
         SHADOW_RENDER = builder
-                .comment("Enable native-accelerated shadow rendering")
+                .comment("Replace vanilla entity shadow rendering: sample data comes from the native library when available, otherwise from Java,",
+                        "and is reused across frames while the entity's interpolated position is unchanged;",
+                        "all shadows of a frame are drawn in one batch, with distance LOD controlled by maxDistance")
                 .define("enabled", true);
+        SHADOW_MAX_DISTANCE = builder
+                .comment("Entity shadows beyond this distance are skipped; beyond half of it only the layers right below the entity are sampled",
+                        "Vanilla shadows fade out completely at 16 blocks")
+                .defineInRange("maxDistance", 16.0, 0.0, 16.0);
         builder.pop();
 
         builder.push("occlusion");
         OCCLUSION_CULL = builder
                 .comment("Skip rendering entities fully hidden behind solid blocks")
                 .define("enabled", true);
+        OCCLUSION_ENGINE = builder
+                .comment("RAY: 9 rays per entity tested off-thread against block snapshots",
+                        "DEPTH_BUFFER: nearby solid blocks rasterized into a small CPU depth buffer each frame")
+                .defineEnum("engine", OcclusionEngine.RAY);
+        OCCLUSION_STATS = builder
+                .comment("Periodically log occlusion test counts, cull ratio and timings")
+                .define("stats", false);
         builder.pop();
 
         builder.push("collision");
         COLLISION_OPT = builder
                 .comment("Reduce redundant block collision queries in step-height path")
                 .define("enabled", true);
+        COLLISION_REST = builder
+                .comment("Reuse the previous collision result for entities resting in place until their movement, nearby blocks or nearby entities change")
+                .define("restingSleep", true);
         builder.pop();
     }
 
     static final ForgeConfigSpec SPEC = BUILDER.build();
+
+    public enum OcclusionEngine {
+        RAY,
+        DEPTH_BUFFER
+    }
 }
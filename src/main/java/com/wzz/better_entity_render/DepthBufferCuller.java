@@ -0,0 +1,96 @@
+package com.wzz.better_entity_render;
+
+import com.wzz.better_entity_render.occlusion.DepthBuffer;
+import com.wzz.better_entity_render.occlusion.DepthOccluders;
+import com.wzz.better_entity_render.occlusion.OccluderCache;
+import net.minecraft.client.Camera;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+/**
+ * 基于 CPU 深度缓冲的实体 / 方块实体遮挡剔除（与 {@link EntityOcclusionCuller} 二选一，见 Config occlusion.engine）。
+ *
+ * 每帧 prepare 时：
+ *   1. 把相机附近已发布的遮挡快照（{@link OccluderCache}）画进 256x128 的深度缓冲
+ *   2. 构建 Hi-Z
+ * 之后每个实体只需投影 AABB 并比较少量 texel，开销与实体数量基本无关，
+ * 也不会漏掉落在射线采样点之间的遮挡物。结果当帧有效，不需要异步和迟滞。
+ *
+ * 投影 FOV 比设置值略大，屏幕边缘（含疾跑等动态 FOV）的实体仍落在缓冲内；
+ * 落在缓冲外或跨越近平面的实体一律可见。
+ */
+public final class DepthBufferCuller {
+
+    private static final int    WIDTH      = 256;
+    private static final int    HEIGHT     = 128;
+    private static final int    MAX_BOXES  = 8192;
+    private static final double FOV_MARGIN = 20.0;
+
+    private static final DepthBuffer BUFFER = new DepthBuffer(WIDTH, HEIGHT);
+
+    // 当前缓冲对应的世界；为 null 表示本帧未构建
+    private static Level frameLevel;
+
+    private DepthBufferCuller() {}
+
+    /** 主线程每帧调用一次（实体渲染前） */
+    public static void beginFrame(Level level, Camera camera) {
+        Vec3 pos = camera.getPosition();
+        OccluderCache.refresh(level, pos.x, pos.y, pos.z);
+
+        Minecraft mc = Minecraft.getInstance();
+        double fov    = Math.min(mc.options.fov().get() + FOV_MARGIN, 170.0);
+        double aspect = (double) mc.getWindow().getWidth() / Math.max(1, mc.getWindow().getHeight());
+
+        BUFFER.begin(pos.x, pos.y, pos.z, camera.getYRot(), camera.getXRot(), fov, aspect);
+        DepthOccluders.rasterize(BUFFER, pos.x, pos.y, pos.z, MAX_BOXES);
+        BUFFER.buildHierarchy();
+        frameLevel = level;
+    }
+
+    public static boolean isVisible(Entity entity, Level level) {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.player != null && mc.player.isSpectator()) return true;
+
+        if (entity instanceof Player) return true;
+        if (level != frameLevel) return true;
+
+        // 渲染位置在上一 tick 与当前 tick 之间插值，两者的并集都要检测
+        AABB aabb = entity.getBoundingBox();
+        double dx = entity.xOld - entity.getX();
+        double dy = entity.yOld - entity.getY();
+        double dz = entity.zOld - entity.getZ();
+        return !BUFFER.isOccluded(
+                aabb.minX + Math.min(dx, 0), aabb.minY + Math.min(dy, 0), aabb.minZ + Math.min(dz, 0),
+                aabb.maxX + Math.max(dx, 0), aabb.maxY + Math.max(dy, 0), aabb.maxZ + Math.max(dz, 0));
+    }
+
+    /** aabb 为调用方确定的检测盒（见 BlockEntityRenderDispatcherMixin） */
+    public static boolean isVisible(BlockEntity blockEntity, AABB aabb, Level level) {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.player != null && mc.player.isSpectator()) return true;
+        if (level != frameLevel) return true;
+
+        return !BUFFER.isOccluded(aabb.minX, aabb.minY, aabb.minZ, aabb.maxX, aabb.maxY, aabb.maxZ);
+    }
+
+    /** 粒子单元（见 {@link EntityOcclusionCuller#PARTICLE_CELL_SHIFT}）是否可见 */
+    public static boolean isParticleCellVisible(int cellX, int cellY, int cellZ, Level level) {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.player != null && mc.player.isSpectator()) return true;
+        if (level != frameLevel) return true;
+
+        int shift = EntityOcclusionCuller.PARTICLE_CELL_SHIFT;
+        int x = cellX << shift, y = cellY << shift, z = cellZ << shift, size = 1 << shift;
+        return !BUFFER.isOccluded(x, y, z, x + size, y + size, z + size);
+    }
+
+    public static void onLevelUnload(Level level) {
+        if (frameLevel == level) frameLevel = null;
+    }
+}
@@ -1,61 +1,114 @@
 package com.wzz.better_entity_render;
 
+import com.wzz.better_entity_render.occlusion.JavaRaycaster;
+import com.wzz.better_entity_render.occlusion.OccluderCache;
+import com.wzz.better_entity_render.occlusion.OcclusionBatch;
+import com.wzz.better_entity_render.occlusion.OcclusionScheduler;
+import com.wzz.better_entity_render.occlusion.OcclusionStateStore;
+import com.wzz.better_entity_render.occlusion.SectionVisibility;
 import com.wzz.better_entity_render.util.LoaderUtil;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.BlockPos;
+import net.minecraft.util.Mth;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.phys.AABB;
 
 import java.util.Queue;
 import java.util.concurrent.*;
 
 /**
- * 异步实体遮挡剔除 v3。
+ * 射线遮挡剔除引擎（{@link Config.OcclusionEngine#RAY}），检测对象为实体、方块实体和粒子单元；
+ * 另一引擎 DEPTH_BUFFER 见 {@link DepthBufferCuller}。
  *
  * 架构：
- *   1. 主线程 isVisible() 快速返回缓存值
- *   2. 后台 worker 线程执行检测：
- *      a. native computeRayPositions() → 得到所有射线经过的方块位置（去重）
- *      b. 主线程（通过 CompletableFuture 回调）查询每个位置的 block state
- *      c. native evaluateVisibility() → 判断是否有射线通畅
- *   3. 迟滞策略防闪烁：可见→遮挡需 3 次连续确认，遮挡→可见 1 次即生效
+ *   0. 检测盒所在 section 不在渲染器本帧洪泛结果中（{@link SectionVisibility}）时直接判为遮挡，不做射线检测
+ *   1. 主线程 isVisible() 快速返回缓存值（{@link OcclusionStateStore}，按世界 + 实体 ID / 方块位置 / 单元，无装箱）
+ *   2. 到期时先在主线程复核上次记录的遮挡体素（confirmHidden），仍挡住则直接确认遮挡；
+ *      否则提交到 {@link OcclusionScheduler}（同一对象合并为一条请求，按优先级取出，密集处合并成簇）
+ *   3. flushTasks 构建 / 发布 section 只读快照（{@link OccluderCache}，重建完成前沿用旧快照），
+ *      再把请求写入 {@link OcclusionBatch}（堆外记录），整批交给 worker 池（ForkJoinPool，按区间拆分、空闲线程窃取）：
+ *      a. 簇：并集 AABB 的射线全部通畅时成员全部可见，否则逐个检测成员
+ *      b. 已遮挡 / 正在确认遮挡的对象或 native 不可用：{@link JavaRaycaster#isVisible} 单遍遍历，同时记录遮挡体素
+ *      c. 其余对象：native computeRayPositions() → 查快照（线程复用缓冲）→ evaluateVisibility()
+ *      d. 结果原地写回批次，之后的 flushTasks 中主线程按记录顺序应用
+ *   4. 刷新间隔按实体 / 相机的相对运动和距离自适应（40 ms ~ 4 s），射线附近的 section 有变化时取最短间隔
+ *   5. 迟滞策略防闪烁：可见→遮挡需 3 次连续确认，遮挡→可见 1 次即生效
  *
- * 修复：
- *   - 旁观者模式直接跳过（相机能穿墙）
- *   - 换用 Amanatides & Woo 精确体素遍历，消除半砖等边界浮点误差
- *   - block state 查询放回主线程，避免并发访问 chunk 数据
+ * 旁观者模式直接跳过（相机能穿墙）；体素遍历为 Amanatides & Woo 精确遍历；
+ * block state 只在主线程构建快照时读取，worker 只读不可变快照。
  */
 public final class EntityOcclusionCuller {
 
     // ---- 迟滞参数 ----
     private static final int    HIDE_CONFIRM_COUNT  = 3;
-    private static final long   REFRESH_INTERVAL_MS = 80;
+    private static final long   REFRESH_INTERVAL_MS = 80;   // 调度器折算等待时间的基准
     private static final double MAX_RAY_LENGTH      = 128.0;
 
-    private static final int MAX_TASKS_PER_FRAME = 48;
-
-    // ---- 状态缓存（主线程读写 visible，worker 写 pending） ----
-    private static final ConcurrentHashMap<Integer, EntityState> STATES
-            = new ConcurrentHashMap<>();
-
-    // ---- 两阶段任务队列 ----
-    // Phase1：等待 native 计算位置列表（worker 线程处理）
-    private static final Queue<Phase1Task> PHASE1_QUEUE = new ConcurrentLinkedQueue<>();
-    // Phase2：等待主线程做 block state 查询，然后 native 评估（主线程在 flushTasks 里处理）
-    private static final Queue<Phase2Task> PHASE2_QUEUE = new ConcurrentLinkedQueue<>();
-
-    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r, "entity-occlusion-worker");
+    // ---- 自适应刷新间隔：相对运动使画面位移约 MOTION_TOLERANCE 格时重新检测 ----
+    private static final long   MIN_REFRESH_MS      = 40;
+    private static final long   MAX_REFRESH_MS      = 4000;
+    private static final double MOTION_TOLERANCE    = 0.25;
+    private static final double CAMERA_SMOOTHING    = 0.3;
+
+    // 每类对象每帧一批，批次容量即每帧最多提交的检测数
+    private static final int MAX_TASKS_PER_FRAME = 256;
+
+    // ---- 检测对象：实体按实体 ID、方块实体按 BlockPos.asLong、粒子按所在单元，各自一套状态缓存和请求队列 ----
+    // 实体、方块实体密集时按簇检测（见 OcclusionScheduler），粒子单元本身已是分组结果
+    private static final Targets   ENTITIES       = new Targets(0, true);
+    private static final Targets   BLOCK_ENTITIES = new Targets(1, true);
+    private static final Targets   PARTICLE_CELLS = new Targets(2, false);
+    private static final Targets[] TARGETS        = {ENTITIES, BLOCK_ENTITIES, PARTICLE_CELLS};
+
+    // 粒子按 2^PARTICLE_CELL_SHIFT 格的立方体单元分组，每个单元只检测一次
+    public static final int PARTICLE_CELL_SHIFT = 2;
+
+    // 状态缓存淘汰：离开世界 / 世界卸载 / 长时间未渲染
+    private static final long IDLE_EVICT_MS     = 10_000;
+    private static final long SWEEP_INTERVAL_MS = 2_000;
+    private static long lastSweepMs;
+
+    // ---- 批次：flushTasks 填充后交给 worker，处理完放入 COMPLETED，应用后回收到 FREE ----
+    private static final Queue<OcclusionBatch> FREE_BATCHES      = new ConcurrentLinkedQueue<>();
+    private static final Queue<OcclusionBatch> COMPLETED_BATCHES = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadLocal<OccluderCache.Lookup> LOOKUP =
+            ThreadLocal.withInitial(OccluderCache.Lookup::new);
+    private static final ThreadLocal<long[]> BLOCKERS =
+            ThreadLocal.withInitial(() -> new long[JavaRaycaster.RAY_COUNT]);
+
+    // native 路径每线程复用的方块位置 / 实心标记：9 条长度不超过 MAX_RAY_LENGTH 的射线最多经过的体素数
+    private static final int MAX_RAY_VOXELS = JavaRaycaster.RAY_COUNT * (3 * (int) MAX_RAY_LENGTH + 1);
+    private static final ThreadLocal<NativeScratch> NATIVE_SCRATCH = ThreadLocal.withInitial(NativeScratch::new);
+
+    // ---- 上次遮挡体素快速复核（主线程）：相机 / 目标移动超过该距离后不再尝试 ----
+    private static final double BLOCKER_TOLERANCE = 1.0;
+    private static final OccluderCache.Lookup MAIN_LOOKUP = new OccluderCache.Lookup();
+
+    // ---- Worker 池：每个线程自带无锁双端队列，空闲线程从其他线程窃取子区间 ----
+    // 留一个核心给渲染线程
+    private static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    // 子区间小于该记录数时不再拆分
+    private static final int SPLIT_THRESHOLD = 16;
+
+    private static final ForkJoinPool WORKERS = new ForkJoinPool(WORKER_COUNT, pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("entity-occlusion-worker-" + t.getPoolIndex());
         t.setDaemon(true);
         t.setPriority(Thread.NORM_PRIORITY - 1);
         return t;
-    });
+    }, null, true);
 
     private static volatile double camX, camY, camZ;
 
+    // 相机运动（平滑后）：线速度 格/秒，角速度 度/秒
+    private static double camSpeed, camAngularSpeed;
+    private static float  camYRot, camXRot;
+    private static long   lastCameraNanos;
+
     private EntityOcclusionCuller() {}
 
     /**
@@ -84,18 +137,48 @@ public final class EntityOcclusionCuller {
             boolean   anyRayOpen
     );
 
+    // native 方法是否可用（库加载失败 / 非 Windows 平台时为 false，改用 JavaRaycaster）
+    private static final boolean NATIVE_BACKEND;
+
     static {
         LoaderUtil.load("better_entity_render");
+        NATIVE_BACKEND = probeNative();
+        LoaderUtil.reportBackend("Entity occlusion culling", NATIVE_BACKEND);
+    }
+
+    private static boolean probeNative() {
+        try {
+            computeRayPositions(0, 0, 0, 0, 0, 0, 1, 1, 1, 0.0);
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
     }
 
-    public static void updateCamera(double x, double y, double z) {
+    public static boolean isNativeBackend() {
+        return NATIVE_BACKEND;
+    }
+
+    public static void updateCamera(double x, double y, double z, float yRot, float xRot) {
+        long nanos = System.nanoTime();
+        double dt  = (nanos - lastCameraNanos) * 1.0E-9;
+        if (lastCameraNanos != 0 && dt > 0.0 && dt < 1.0) {
+            double dist  = Math.sqrt(sq(x - camX) + sq(y + 1.62 - camY) + sq(z - camZ));
+            double angle = Math.abs(Mth.wrapDegrees(yRot - camYRot)) + Math.abs(xRot - camXRot);
+            camSpeed        += (dist / dt - camSpeed) * CAMERA_SMOOTHING;
+            camAngularSpeed += (angle / dt - camAngularSpeed) * CAMERA_SMOOTHING;
+        }
+        lastCameraNanos = nanos;
+        camYRot = yRot;
+        camXRot = xRot;
+
         camX = x;
         camY = y + 1.62; // 眼睛高度
         camZ = z;
     }
 
     /**
-     * 主线程查询可见性。
+     * 主线程查询实体可见性。
      * 旁观者模式下直接返回 true（相机能穿墙，遮挡无意义）。
      */
     public static boolean isVisible(Entity entity, Level level) {
@@ -103,89 +186,305 @@ public final class EntityOcclusionCuller {
         if (mc.player != null && mc.player.isSpectator()) return true;
 
         if (entity instanceof Player) return true;
+        if (!entity.noCulling && unreachable(ENTITIES, entity.getId(), entity.getBoundingBoxForCulling(), level)) {
+            return false;
+        }
+
+        double speed = Math.sqrt(sq(entity.getX() - entity.xOld)
+                + sq(entity.getY() - entity.yOld)
+                + sq(entity.getZ() - entity.zOld)) * 20.0;
+        return query(ENTITIES, entity.getId(), entity.getBoundingBox(), speed, level);
+    }
+
+    /**
+     * 主线程查询方块实体可见性，按方块位置缓存，迟滞策略与实体相同。
+     * aabb 为调用方确定的检测盒（见 BlockEntityRenderDispatcherMixin）。
+     * 区块内的方块实体由原版按可达 section 提交，不再做 section 预筛。
+     */
+    public static boolean isVisible(BlockEntity blockEntity, AABB aabb, Level level) {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.player != null && mc.player.isSpectator()) return true;
+
+        return query(BLOCK_ENTITIES, blockEntity.getBlockPos().asLong(), aabb, 0.0, level);
+    }
+
+    /**
+     * 主线程查询粒子单元可见性（单元坐标 = 方块坐标 >> {@link #PARTICLE_CELL_SHIFT}）。
+     * 以整个单元为检测盒：单元任意部分可见即视为可见，迟滞策略与实体相同。
+     */
+    public static boolean isParticleCellVisible(int cellX, int cellY, int cellZ, Level level) {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.player != null && mc.player.isSpectator()) return true;
+
+        int size = 1 << PARTICLE_CELL_SHIFT;
+        int x = cellX << PARTICLE_CELL_SHIFT, y = cellY << PARTICLE_CELL_SHIFT, z = cellZ << PARTICLE_CELL_SHIFT;
+        long key = BlockPos.asLong(cellX, cellY, cellZ);
+        if (SectionVisibility.isUnreachable(level, x, y, z, x + size, y + size, z + size)) {
+            PARTICLE_CELLS.remove(key, level);
+            return false;
+        }
+        return query(PARTICLE_CELLS, key, new AABB(x, y, z, x + size, y + size, z + size), 0.0, level);
+    }
+
+    /**
+     * section 预筛：检测盒所在 section 洪泛不可达时判为遮挡，并丢弃缓存状态，
+     * 重新可达时按新条目处理（先可见，再由射线检测确认遮挡），不会因旧的遮挡结果延迟出现。
+     */
+    private static boolean unreachable(Targets targets, long key, AABB aabb, Level level) {
+        if (!SectionVisibility.isUnreachable(level, aabb.minX, aabb.minY, aabb.minZ, aabb.maxX, aabb.maxY, aabb.maxZ)) {
+            return false;
+        }
+        targets.remove(key, level);
+        return true;
+    }
 
-        int  id   = entity.getId();
-        AABB aabb = entity.getBoundingBox();
+    private static boolean query(Targets targets, long key, AABB aabb, double speed, Level level) {
+        OcclusionStateStore store     = targets.store;
+        OcclusionScheduler  scheduler = targets.scheduler;
+        long now = System.currentTimeMillis();
 
-        EntityState state = STATES.get(id);
+        double cx = (aabb.minX + aabb.maxX) * 0.5;
+        double cy = (aabb.minY + aabb.maxY) * 0.5;
+        double cz = (aabb.minZ + aabb.maxZ) * 0.5;
 
-        if (state == null) {
-            state = new EntityState(aabb);
-            STATES.put(id, state);
-            submitPhase1(id, aabb, level);
+        if (store.level() != level) {
+            store.bindLevel(level);
+            scheduler.clear();
+        }
+        int slot = store.find(key);
+
+        if (slot < 0) {
+            slot = store.insert(key, cx, cy, cz, now);
+            scheduler.request(key, aabb, camX, camY, camZ, 0L, false);
             return true;
         }
+        store.setLastSeenMs(slot, now);
 
         // 检测移动（AABB 中心偏移 > 0.5 格重置计数）
-        double prevCX = (state.aabbMinX + state.aabbMaxX) * 0.5;
-        double prevCY = (state.aabbMinY + state.aabbMaxY) * 0.5;
-        double prevCZ = (state.aabbMinZ + state.aabbMaxZ) * 0.5;
-        double curCX  = (aabb.minX + aabb.maxX) * 0.5;
-        double curCY  = (aabb.minY + aabb.maxY) * 0.5;
-        double curCZ  = (aabb.minZ + aabb.maxZ) * 0.5;
-        double movedSq = sq(curCX-prevCX) + sq(curCY-prevCY) + sq(curCZ-prevCZ);
+        double movedSq = sq(cx - store.anchorX(slot)) + sq(cy - store.anchorY(slot)) + sq(cz - store.anchorZ(slot));
         if (movedSq > 0.25) {
-            state.hideConfirmCount = 0;
-            state.aabbMinX = aabb.minX; state.aabbMinY = aabb.minY; state.aabbMinZ = aabb.minZ;
-            state.aabbMaxX = aabb.maxX; state.aabbMaxY = aabb.maxY; state.aabbMaxZ = aabb.maxZ;
+            store.setHideConfirm(slot, 0);
+            store.setAnchor(slot, cx, cy, cz);
         }
 
-        // 到期时提交刷新
-        long now = System.currentTimeMillis();
-        if (now - state.lastCheckMs > REFRESH_INTERVAL_MS && !state.taskPending) {
-            state.taskPending = true;
-            submitPhase1(id, aabb, level);
+        // 到期时提交刷新（已在排队的请求只更新 AABB 和优先级）；
+        // 上次检测后射线经过的 section 或检测盒附近有方块变化则按最短间隔处理
+        long lastCheck = store.lastCheckMs(slot);
+        long interval  = OccluderCache.changedNear(lastCheck, camX, camY, camZ,
+                aabb.minX, aabb.minY, aabb.minZ, aabb.maxX, aabb.maxY, aabb.maxZ)
+                ? MIN_REFRESH_MS : refreshInterval(speed, cx, cy, cz);
+        if (now - lastCheck > interval && !store.isPending(slot)) {
+            if (confirmHidden(store, slot, aabb, cx, cy, cz, level)) {
+                applyResult(store, slot, false, now);
+            } else {
+                scheduler.request(key, aabb, camX, camY, camZ, lastCheck, !store.isVisible(slot));
+            }
         }
 
-        return state.visible;
+        return store.isVisible(slot);
+    }
+
+    /**
+     * 上次检测为遮挡且记录了每条射线的遮挡体素时，先在主线程复核这些体素：
+     * 相机和目标都没有移出容差，且 9 个体素仍是完整不透明方块并仍在对应射线上，
+     * 即可直接确认遮挡，省去提交和完整遍历。多数被遮挡的实体帧间始终挡在同一面墙后。
+     */
+    private static boolean confirmHidden(OcclusionStateStore store, int slot, AABB aabb,
+                                         double cx, double cy, double cz, Level level) {
+        if (!store.hasBlockers(slot)) return false;
+        if (sq(camX - store.blockRef(slot, 0)) + sq(camY - store.blockRef(slot, 1)) + sq(camZ - store.blockRef(slot, 2))
+                > BLOCKER_TOLERANCE * BLOCKER_TOLERANCE) return false;
+        if (sq(cx - store.blockRef(slot, 3)) + sq(cy - store.blockRef(slot, 4)) + sq(cz - store.blockRef(slot, 5))
+                > BLOCKER_TOLERANCE * BLOCKER_TOLERANCE) return false;
+
+        MAIN_LOOKUP.reset(level);
+        return JavaRaycaster.stillBlocked(camX, camY, camZ,
+                aabb.minX, aabb.minY, aabb.minZ, aabb.maxX, aabb.maxY, aabb.maxZ,
+                MAX_RAY_LENGTH, MAIN_LOOKUP, store.blockers(), slot * JavaRaycaster.RAY_COUNT);
+    }
+
+    /**
+     * 按相对运动估算刷新间隔：
+     *   - 实体速度取自上一 tick 的位移（方块实体为 0），相机速度在 updateCamera 中平滑
+     *   - 远处实体同样的位移在画面上更小，容差随距离放大
+     *   - 转动视角不改变射线几何，但会把很久没检测的实体带进画面，适度缩短间隔
+     * 静止的实体配合静止的相机几乎不再重测，快速移动的实体则更频繁。
+     */
+    private static long refreshInterval(double targetSpeed, double cx, double cy, double cz) {
+        double dist      = Math.sqrt(sq(cx - camX) + sq(cy - camY) + sq(cz - camZ));
+        double tolerance = MOTION_TOLERANCE * (1.0 + dist / 32.0);
+        double speed     = targetSpeed + camSpeed;
+
+        double ms = speed > 1.0E-3 ? tolerance / speed * 1000.0 : MAX_REFRESH_MS;
+        ms /= 1.0 + camAngularSpeed / 90.0;
+        return (long) Mth.clamp(ms, MIN_REFRESH_MS, MAX_REFRESH_MS);
+    }
+
+    /** 实体离开客户端世界时移除其状态 */
+    public static void onEntityRemoved(Entity entity, Level level) {
+        ENTITIES.remove(entity.getId(), level);
+    }
+
+    /** 客户端方块实体被移除（方块被替换 / 区块卸载）时移除其状态 */
+    public static void onBlockEntityRemoved(BlockPos pos, Level level) {
+        BLOCK_ENTITIES.remove(pos.asLong(), level);
+    }
+
+    public static void onLevelUnload(Level level) {
+        SectionVisibility.clear();
+        for (Targets targets : TARGETS) {
+            if (targets.store.level() == level) targets.clear();
+        }
     }
 
     /**
      * 每帧主线程调用：
-     * 1. 处理 Phase2 任务（block state 查询 + native 评估，必须在主线程）
-     * 2. 将新的 Phase1 任务提交给 worker
+     * 1. 按记录顺序应用 worker 已完成批次的结果
+     * 2. 构建 / 发布 worker 请求的遮挡快照（读 block state，必须在主线程）
+     * 3. 实体、方块实体各自按优先级取出请求填充一批，整批提交给 worker
      */
     public static void flushTasks() {
-        // ---- Phase2：主线程执行 block state 查询 ----
-        int p2Count = 0;
-        Phase2Task p2;
-        while (p2Count < MAX_TASKS_PER_FRAME && (p2 = PHASE2_QUEUE.poll()) != null) {
-            processPhase2(p2);
-            p2Count++;
-        }
-
-        // ---- Phase1：提交给 worker ----
-        int p1Count = 0;
-        Phase1Task p1;
-        while (p1Count < MAX_TASKS_PER_FRAME && (p1 = PHASE1_QUEUE.poll()) != null) {
-            final Phase1Task task = p1;
-            WORKER.submit(() -> processPhase1(task));
-            p1Count++;
+        OcclusionBatch done;
+        while ((done = COMPLETED_BATCHES.poll()) != null) {
+            applyBatch(done);
+            FREE_BATCHES.offer(done);
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastSweepMs > SWEEP_INTERVAL_MS) {
+            lastSweepMs = now;
+            for (Targets targets : TARGETS) targets.store.sweep(now - IDLE_EVICT_MS);
+        }
+
+        Level level = Minecraft.getInstance().level;
+        if (level != null) {
+            OccluderCache.refresh(level, camX, camY, camZ);
+        }
+
+        for (Targets targets : TARGETS) {
+            submit(targets, level, now);
         }
     }
 
+    private static void submit(Targets targets, Level level, long now) {
+        if (level == null || level != targets.store.level()) {
+            targets.scheduler.clear();
+            return;
+        }
+        if (targets.scheduler.size() == 0) return;
+
+        OcclusionBatch batch = FREE_BATCHES.poll();
+        if (batch == null) batch = new OcclusionBatch(MAX_TASKS_PER_FRAME);
+        batch.begin(level, targets.tag, camX, camY, camZ);
+        targets.scheduler.drainInto(batch, now, REFRESH_INTERVAL_MS);
+
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            if (batch.group(i) > 0) continue;
+            int slot = targets.store.find(batch.key(i));
+            if (slot < 0) continue;
+            targets.store.setPending(slot, true);
+            if (!targets.store.isVisible(slot) || targets.store.hideConfirm(slot) > 0) batch.setWantsBlockers(i);
+        }
+
+        WORKERS.execute(new BatchTask(batch, 0, batch.size(), true));
+    }
+
     public static void shutdown() {
-        WORKER.shutdownNow();
-        STATES.clear();
+        WORKERS.shutdownNow();
+        for (Targets targets : TARGETS) targets.clear();
+        OccluderCache.clear();
     }
 
-    private static void submitPhase1(int entityId, AABB aabb, Level level) {
-        PHASE1_QUEUE.offer(new Phase1Task(entityId, aabb, level, camX, camY, camZ));
+    /**
+     * Worker 线程：处理批次中 [from, to) 的记录，结果按下标原地写回。
+     * 区间过大时对半拆分，一半压入本线程队列供其他线程窃取；
+     * 结果位置只取决于记录下标，主线程仍按记录顺序应用，与线程调度无关。
+     * 根任务在全部子区间完成后把批次放入 COMPLETED_BATCHES。
+     */
+    private static final class BatchTask extends RecursiveAction {
+        private final OcclusionBatch batch;
+        private final int from, to;
+        private final boolean root;
+
+        BatchTask(OcclusionBatch batch, int from, int to, boolean root) {
+            this.batch = batch;
+            this.from  = from;
+            this.to    = to;
+            this.root  = root;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (to - from > SPLIT_THRESHOLD) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new BatchTask(batch, from, mid, false),
+                              new BatchTask(batch, mid, to, false));
+                } else {
+                    OccluderCache.Lookup lookup = LOOKUP.get();
+                    for (int i = from; i < to; i++) {
+                        int group = batch.group(i);
+                        // 成员由所在簇头统一处理（簇头可能在其他子区间）
+                        if (group == OcclusionBatch.GROUP_MEMBER) continue;
+                        if (group > 0) {
+                            testGroup(batch, i, group, lookup);
+                        } else {
+                            lookup.reset(batch.level());
+                            batch.setResult(i, testRecord(batch, i, lookup));
+                        }
+                    }
+                }
+            } finally {
+                if (root) COMPLETED_BATCHES.offer(batch);
+            }
+        }
     }
 
-    /** Worker 线程：调用 native 计算需要检查的方块位置 */
-    private static void processPhase1(Phase1Task task) {
-        int[] raw = computeRayPositions(
-                task.camX, task.camY, task.camZ,
-                task.aabbMinX, task.aabbMinY, task.aabbMinZ,
-                task.aabbMaxX, task.aabbMaxY, task.aabbMaxZ,
-                MAX_RAY_LENGTH
-        );
+    /**
+     * Worker 线程：簇头记录之后的 members 条成员。
+     * 先用成员并集 AABB 做一次全射线检测，全部通畅 → 成员全部可见；
+     * 否则（含全部被挡）逐个做完整的 9 射线检测：并集的射线无法代表每个成员，
+     * 成员的某个角仍可能从墙边或门洞露出。
+     * 簇检测始终走 Java 单遍实现（需要逐射线结果），与 native 读取同一份快照。
+     */
+    private static void testGroup(OcclusionBatch batch, int head, int members, OccluderCache.Lookup lookup) {
+        lookup.reset(batch.level());
+        int open = JavaRaycaster.openRayMask(batch.camX(), batch.camY(), batch.camZ(),
+                batch.minX(head), batch.minY(head), batch.minZ(head),
+                batch.maxX(head), batch.maxY(head), batch.maxZ(head),
+                MAX_RAY_LENGTH, lookup);
+        batch.setResult(head, open != 0);
+
+        for (int i = head + 1; i <= head + members; i++) {
+            if (open == JavaRaycaster.ALL_RAYS) {
+                batch.setResult(i, true);
+            } else {
+                lookup.reset(batch.level());
+                batch.setResult(i, testRecord(batch, i, lookup));
+            }
+        }
+    }
+
+    /**
+     * Worker 线程：基于快照完成单条记录的可见性检测。
+     * 需要遮挡体素的记录（已遮挡或正在确认遮挡）只走 Java 单遍遍历，一次得到结果和遮挡体素；
+     * 其余记录在 native 可用时走 native，判为遮挡时不补记体素（下次刷新会被标记为需要）。
+     */
+    private static boolean testRecord(OcclusionBatch batch, int i, OccluderCache.Lookup lookup) {
+        double cx = batch.camX(), cy = batch.camY(), cz = batch.camZ();
+        double minX = batch.minX(i), minY = batch.minY(i), minZ = batch.minZ(i);
+        double maxX = batch.maxX(i), maxY = batch.maxY(i), maxZ = batch.maxZ(i);
+
+        if (!NATIVE_BACKEND || batch.wantsBlockers(i)) {
+            return recordBlockers(batch, i, lookup);
+        }
+
+        // 现有 native 库只提供逐实体的两次调用入口
+        int[] raw = computeRayPositions(cx, cy, cz, minX, minY, minZ, maxX, maxY, maxZ, MAX_RAY_LENGTH);
 
         if (raw == null || raw.length < 2) {
             // 异常：保守可见
-            applyResult(task.entityId, true);
-            return;
+            return true;
         }
 
         boolean anyRayOpen = raw[0] == 1;
@@ -193,139 +492,153 @@ public final class EntityOcclusionCuller {
 
         if (anyRayOpen || count == 0) {
             // 有射线直接可见，无需查询方块
-            applyResult(task.entityId, true);
-            return;
+            return true;
         }
 
-        // 提取方块位置数组
-        int[] positions = new int[count * 3];
-        System.arraycopy(raw, 2, positions, 0, count * 3);
-
-        // 提交 Phase2（需要主线程）
-        PHASE2_QUEUE.offer(new Phase2Task(
-                task.entityId,
-                task.aabbMinX, task.aabbMinY, task.aabbMinZ,
-                task.aabbMaxX, task.aabbMaxY, task.aabbMaxZ,
-                task.level,
-                task.camX, task.camY, task.camZ,
-                positions,
-                anyRayOpen
-        ));
-    }
+        // 超出复用缓冲的异常结果交给 Java 遍历
+        if (count > MAX_RAY_VOXELS) {
+            return recordBlockers(batch, i, lookup);
+        }
 
-    /** 主线程：查询 block state，调用 native 评估 */
-    private static void processPhase2(Phase2Task task) {
-        int count      = task.positions.length / 3;
-        boolean[] solid = new boolean[count];
-
-        BlockPos.MutableBlockPos mpos = new BlockPos.MutableBlockPos();
-        for (int i = 0; i < count; i++) {
-            int bx = task.positions[i*3];
-            int by = task.positions[i*3+1];
-            int bz = task.positions[i*3+2];
-            mpos.set(bx, by, bz);
-            try {
-                BlockState bs = task.level.getChunk(mpos).getBlockState(mpos);
-                solid[i] = bs.isCollisionShapeFullBlock(task.level, mpos);
-            } catch (Exception e) {
-                solid[i] = false; // chunk 未加载，保守不遮挡
-            }
+        // 方块位置写入线程复用的缓冲并查快照（未发布的 section 保守不遮挡）
+        NativeScratch scratch = NATIVE_SCRATCH.get();
+        int[]     positions = scratch.positions;
+        boolean[] solid     = scratch.solid;
+        for (int k = 0; k < count; k++) {
+            int x = raw[2 + k * 3], y = raw[3 + k * 3], z = raw[4 + k * 3];
+            positions[k * 3]     = x;
+            positions[k * 3 + 1] = y;
+            positions[k * 3 + 2] = z;
+            solid[k] = lookup.isOpaque(x, y, z);
         }
+        scratch.pad(count);
 
-        boolean visible = evaluateVisibility(
-                task.camX, task.camY, task.camZ,
-                task.aabbMinX, task.aabbMinY, task.aabbMinZ,
-                task.aabbMaxX, task.aabbMaxY, task.aabbMaxZ,
+        return evaluateVisibility(
+                cx, cy, cz,
+                minX, minY, minZ,
+                maxX, maxY, maxZ,
                 MAX_RAY_LENGTH,
-                task.positions,
+                positions,
                 solid,
-                task.anyRayOpen
+                anyRayOpen
         );
-
-        applyResult(task.entityId, visible);
     }
 
-    /** 将检测结果应用到 state（迟滞逻辑） */
-    private static void applyResult(int entityId, boolean rawVisible) {
-        STATES.compute(entityId, (id, state) -> {
-            if (state == null) return null;
-
-            state.taskPending = false;
-            state.lastCheckMs = System.currentTimeMillis();
+    /** Java 单遍检测，结果为遮挡时把每条射线的遮挡体素写回记录 */
+    private static boolean recordBlockers(OcclusionBatch batch, int i, OccluderCache.Lookup lookup) {
+        long[] blockers = BLOCKERS.get();
+        boolean visible = JavaRaycaster.isVisible(batch.camX(), batch.camY(), batch.camZ(),
+                batch.minX(i), batch.minY(i), batch.minZ(i),
+                batch.maxX(i), batch.maxY(i), batch.maxZ(i),
+                MAX_RAY_LENGTH, lookup, blockers);
+        if (!visible) {
+            for (int r = 0; r < JavaRaycaster.RAY_COUNT; r++) batch.setBlocker(i, r, blockers[r]);
+        }
+        return visible;
+    }
 
-            if (rawVisible) {
-                // 遮挡→可见：立即切换，重置计数
-                state.visible          = true;
-                state.hideConfirmCount = 0;
-            } else {
-                // 可见→遮挡：需要连续确认
-                state.hideConfirmCount++;
-                if (state.hideConfirmCount >= HIDE_CONFIRM_COUNT) {
-                    state.visible          = false;
-                    state.hideConfirmCount = HIDE_CONFIRM_COUNT; // 防溢出
-                }
+    /**
+     * native 路径的复用缓冲。native 入口按数组长度读取，count 之后的部分用第 0 项（位置与实心标记）填充：
+     * 重复的同值条目不改变判定，也不会残留上一个实体的方块。
+     * 第 0 项是相机所在体素，同一帧内几乎不变，通常只需补写本次与上次 count 之间的部分。
+     */
+    private static final class NativeScratch {
+        final int[]     positions = new int[MAX_RAY_VOXELS * 3];
+        final boolean[] solid     = new boolean[MAX_RAY_VOXELS];
+        // [padFrom, MAX_RAY_VOXELS) 已是 (padX, padY, padZ, padSolid)
+        int     padFrom = MAX_RAY_VOXELS;
+        int     padX, padY, padZ;
+        boolean padSolid;
+
+        void pad(int count) {
+            int x = positions[0], y = positions[1], z = positions[2];
+            boolean s = solid[0];
+            int end = padFrom;
+            if (x != padX || y != padY || z != padZ || s != padSolid) {
+                padX = x; padY = y; padZ = z; padSolid = s;
+                end = MAX_RAY_VOXELS;
             }
+            for (int k = count; k < end; k++) {
+                positions[k * 3]     = x;
+                positions[k * 3 + 1] = y;
+                positions[k * 3 + 2] = z;
+                solid[k] = s;
+            }
+            padFrom = count;
+        }
+    }
 
-            return state;
-        });
+    /** 主线程：按记录顺序应用整批结果 */
+    private static void applyBatch(OcclusionBatch batch) {
+        OcclusionStateStore store = TARGETS[batch.tag()].store;
+        if (batch.level() != store.level()) return;
+        long now = System.currentTimeMillis();
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            if (batch.group(i) > 0) continue; // 簇头：结果已展开到成员
+            int slot = store.find(batch.key(i));
+            if (slot < 0) continue;
+            // -1：worker 异常未处理，保守可见
+            boolean visible = batch.result(i) != 0;
+            recordBlockers(store, slot, batch, i, visible);
+            applyResult(store, slot, visible, now);
+        }
     }
 
-    private static double sq(double v) { return v * v; }
+    private static void recordBlockers(OcclusionStateStore store, int slot, OcclusionBatch batch, int i, boolean visible) {
+        if (visible || batch.blocker(i, 0) == JavaRaycaster.NO_BLOCKER) {
+            store.clearBlockers(slot);
+            return;
+        }
+        for (int r = 0; r < JavaRaycaster.RAY_COUNT; r++) store.setBlocker(slot, r, batch.blocker(i, r));
+        store.setBlockRef(slot, batch.camX(), batch.camY(), batch.camZ(),
+                (batch.minX(i) + batch.maxX(i)) * 0.5,
+                (batch.minY(i) + batch.maxY(i)) * 0.5,
+                (batch.minZ(i) + batch.maxZ(i)) * 0.5);
+    }
 
-    private static final class EntityState {
-        volatile boolean visible          = true;
-        int              hideConfirmCount = 0;
-        long             lastCheckMs      = 0;
-        volatile boolean taskPending      = false;
+    /** 将检测结果应用到 state（迟滞逻辑） */
+    private static void applyResult(OcclusionStateStore store, int slot, boolean rawVisible, long now) {
+        store.setPending(slot, false);
+        store.setLastCheckMs(slot, now);
+
+        if (rawVisible) {
+            // 遮挡→可见：立即切换，重置计数
+            store.setVisible(slot, true);
+            store.setHideConfirm(slot, 0);
+        } else {
+            // 可见→遮挡：需要连续确认
+            int count = store.hideConfirm(slot) + 1;
+            if (count >= HIDE_CONFIRM_COUNT) {
+                store.setVisible(slot, false);
+                count = HIDE_CONFIRM_COUNT; // 防溢出
+            }
+            store.setHideConfirm(slot, count);
+        }
+    }
 
-        double aabbMinX, aabbMinY, aabbMinZ;
-        double aabbMaxX, aabbMaxY, aabbMaxZ;
+    /** 一类检测对象的状态缓存与请求队列（仅主线程）；tag 写入批次头，用于回查 */
+    private static final class Targets {
+        final int                 tag;
+        final OcclusionStateStore store     = new OcclusionStateStore();
+        final OcclusionScheduler  scheduler;
 
-        EntityState(AABB aabb) {
-            aabbMinX = aabb.minX; aabbMinY = aabb.minY; aabbMinZ = aabb.minZ;
-            aabbMaxX = aabb.maxX; aabbMaxY = aabb.maxY; aabbMaxZ = aabb.maxZ;
+        Targets(int tag, boolean clustering) {
+            this.tag       = tag;
+            this.scheduler = new OcclusionScheduler(clustering);
         }
-    }
 
-    private static final class Phase1Task {
-        final int    entityId;
-        final double aabbMinX, aabbMinY, aabbMinZ;
-        final double aabbMaxX, aabbMaxY, aabbMaxZ;
-        final Level  level;
-        final double camX, camY, camZ;
-
-        Phase1Task(int entityId, AABB aabb, Level level,
-                   double camX, double camY, double camZ) {
-            this.entityId = entityId;
-            aabbMinX = aabb.minX; aabbMinY = aabb.minY; aabbMinZ = aabb.minZ;
-            aabbMaxX = aabb.maxX; aabbMaxY = aabb.maxY; aabbMaxZ = aabb.maxZ;
-            this.level = level;
-            this.camX = camX; this.camY = camY; this.camZ = camZ;
+        void remove(long key, Level level) {
+            if (store.level() == level) {
+                store.remove(key);
+                scheduler.remove(key);
+            }
         }
-    }
 
-    private static final class Phase2Task {
-        final int      entityId;
-        final double   aabbMinX, aabbMinY, aabbMinZ;
-        final double   aabbMaxX, aabbMaxY, aabbMaxZ;
-        final Level    level;
-        final double   camX, camY, camZ;
-        final int[]    positions;
-        final boolean  anyRayOpen;
-
-        Phase2Task(int entityId,
-                   double minX, double minY, double minZ,
-                   double maxX, double maxY, double maxZ,
-                   Level level,
-                   double camX, double camY, double camZ,
-                   int[] positions, boolean anyRayOpen) {
-            this.entityId   = entityId;
-            aabbMinX = minX; aabbMinY = minY; aabbMinZ = minZ;
-            aabbMaxX = maxX; aabbMaxY = maxY; aabbMaxZ = maxZ;
-            this.level      = level;
-            this.camX = camX; this.camY = camY; this.camZ = camZ;
-            this.positions  = positions;
-            this.anyRayOpen = anyRayOpen;
+        void clear() {
+            store.clear();
+            scheduler.clear();
         }
     }
-}
\ No newline at end of file
+
+    private static double sq(double v) { return v * v; }
+}
@@ -1,6 +1,5 @@
 package com.wzz.better_entity_render;
 
-import com.wzz.better_entity_render.util.OSHelper;
 import org.objectweb.asm.tree.ClassNode;
 import org.spongepowered.asm.mixin.extensibility.IMixinConfigPlugin;
 import org.spongepowered.asm.mixin.extensibility.IMixinInfo;
@@ -21,7 +20,8 @@ public class MixinPlugin implements IMixinConfigPlugin {
 
     @Override
     public boolean shouldApplyMixin(String targetClassName, String mixinClassName) {
-        return !mixinClassName.contains("EntityRenderDispatcher") || OSHelper.isWindows();
+        // 遮挡剔除与阴影在 native 不可用时都回退到 Java 实现，所有平台都可应用
+        return true;
     }
 
     @Override
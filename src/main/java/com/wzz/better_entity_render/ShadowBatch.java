@@ -0,0 +1,63 @@
+package com.wzz.better_entity_render;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import net.minecraft.client.renderer.RenderType;
+
+/**
+ * 整帧的实体阴影合批。
+ *
+ * 原版每个实体的阴影都向共享 BufferSource 取 SHADOW_RENDER_TYPE 的缓冲：
+ * 与实体模型的 RenderType 交替出现，每次切换都会把前一批提交绘制，阴影越多 draw call 越多。
+ * 这里把一帧内所有阴影四边形写进独立的 BufferBuilder（顶点已按各实体的 pose 变换），
+ * 在实体渲染阶段结束（RenderLevelStageEvent AFTER_ENTITIES）时一次提交。
+ *
+ * 只在 {@link #beginFrame} 与 {@link #flush} 之间的世界实体渲染中生效；
+ * GUI 等其他场合渲染的实体仍直接写入调用方的缓冲。仅渲染线程访问。
+ */
+public final class ShadowBatch {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private static BufferBuilder builder;
+    private static RenderType    renderType;
+    private static boolean       active;
+
+    private ShadowBatch() {}
+
+    /** EntityRenderDispatcher.prepare 时调用：开始收集本帧阴影，丢弃上一帧未提交的残留 */
+    public static void beginFrame() {
+        discard();
+        active = true;
+    }
+
+    public static boolean isActive() {
+        return active;
+    }
+
+    /** 本帧阴影缓冲，首次取用时按 type 的格式开始写入 */
+    public static VertexConsumer consumer(RenderType type) {
+        if (builder == null) builder = new BufferBuilder(INITIAL_CAPACITY);
+        if (!builder.building()) {
+            builder.begin(type.mode(), type.format());
+            renderType = type;
+        }
+        return builder;
+    }
+
+    /** 实体渲染阶段结束时调用：一次提交本帧全部阴影 */
+    public static void flush() {
+        active = false;
+        if (builder != null && builder.building()) {
+            renderType.end(builder, RenderSystem.getVertexSorting());
+        }
+    }
+
+    private static void discard() {
+        if (builder != null && builder.building()) {
+            BufferBuilder.RenderedBuffer stale = builder.endOrDiscardIfEmpty();
+            if (stale != null) stale.release();
+        }
+    }
+}
@@ -1,30 +1,59 @@
 package com.wzz.better_entity_render;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
 /**
- * 帧内阴影数据缓存。
- * 同一帧内，同一实体的 computeShadowData 结果只算一次。
+ * 阴影数据缓存。
+ *
+ * computeShadowData 的结果只取决于插值后的位置、阴影强度、半径和是否幼体
+ * （方块与光照在 renderBlockShadow 时才读取），因此只要这些输入不变，
+ * 结果可以跨帧复用 —— 覆盖刷怪塔里绝大多数静止的生物。
+ *
+ * 实现：int 键开放寻址表（线性探测 + 回移删除），各字段按列存放；
+ * 每个条目持有一块复用的结果缓冲区，淘汰时归还缓冲池，稳定状态下不分配、不装箱。
+ * 条目记录最近使用的帧号，超过 {@link #EVICT_AFTER_FRAMES} 帧未使用则淘汰。
+ * 仅渲染线程访问。
  */
 public final class ShadowCache {
 
-    // entityId -> 当帧计算结果
-    private static final Map<Integer, float[]> DATA    = new HashMap<>();
-    // entityId -> 计算时的帧号
-    private static final Map<Integer, Long>    FRAMES  = new HashMap<>();
+    private static final int EMPTY_KEY          = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY   = 256;
+    private static final int EVICT_AFTER_FRAMES = 64;
+    private static final int MAX_POOLED         = 256;
+
+    private static int[]     keys;
+    private static long[]    frames;
+    private static double[]  inX, inY, inZ;
+    private static float[]   inStrength, inRadius;
+    private static boolean[] inBaby;
+    private static float[][] payload;
+
+    private static int size;
+    private static int mask;
+
+    private static final ArrayDeque<float[]> POOL = new ArrayDeque<>();
 
     private static long currentFrame = 0;
 
+    static {
+        allocate(INITIAL_CAPACITY);
+    }
+
     private ShadowCache() {}
 
-    /** 每帧调用一次，推进帧号。map 超限时顺带清理。 */
+    /** 每帧调用一次，推进帧号，并定期淘汰久未使用的条目。 */
     public static void nextFrame() {
         currentFrame++;
-        // 防止长时间运行导致 map 无限增长（正常情况下不会触发）
-        if (DATA.size() > 1024) {
-            DATA.clear();
-            FRAMES.clear();
+        if (currentFrame % EVICT_AFTER_FRAMES == 0) {
+            long cutoff = currentFrame - EVICT_AFTER_FRAMES;
+            for (int slot = 0; slot < keys.length; ) {
+                if (keys[slot] != EMPTY_KEY && frames[slot] < cutoff) {
+                    removeSlot(slot);
+                } else {
+                    slot++;
+                }
+            }
         }
     }
 
@@ -33,20 +62,157 @@ public final class ShadowCache {
     }
 
     /**
-     * 尝试获取当前帧的缓存。
-     * @return null 表示未命中
+     * 查找可复用的结果：输入与上次计算时完全相同即命中（不限于同一帧）。
+     * @return null 表示未命中；返回的数组归缓存所有，长度可能大于有效内容，以 [0] 的 count 为准
+     */
+    public static float[] get(int entityId, double x, double y, double z,
+                              float strength, float radius, boolean isBaby) {
+        int slot = find(entityId);
+        if (slot < 0) return null;
+        if (inX[slot] != x || inY[slot] != y || inZ[slot] != z
+                || inStrength[slot] != strength || inRadius[slot] != radius || inBaby[slot] != isBaby) {
+            return null;
+        }
+        frames[slot] = currentFrame;
+        return payload[slot];
+    }
+
+    /**
+     * 存入计算结果：复制到该实体复用的缓冲区（data 可以是调用方的临时缓冲）。
+     * @return 缓存持有的副本
      */
-    public static float[] get(int entityId) {
-        Long frame = FRAMES.get(entityId);
-        if (frame != null && frame == currentFrame) {
-            return DATA.get(entityId);
+    public static float[] put(int entityId, double x, double y, double z,
+                              float strength, float radius, boolean isBaby, float[] data) {
+        int length = 5 + Math.max(0, Float.floatToRawIntBits(data[0])) * 4;
+
+        int slot = find(entityId);
+        if (slot < 0) slot = insert(entityId);
+
+        float[] buf = payload[slot];
+        if (buf == null || buf.length < length) {
+            if (buf != null) release(buf);
+            buf = acquire(length);
+            payload[slot] = buf;
+        }
+        System.arraycopy(data, 0, buf, 0, length);
+
+        frames[slot]     = currentFrame;
+        inX[slot]        = x;
+        inY[slot]        = y;
+        inZ[slot]        = z;
+        inStrength[slot] = strength;
+        inRadius[slot]   = radius;
+        inBaby[slot]     = isBaby;
+        return buf;
+    }
+
+    // ---- 内部 ----
+
+    private static float[] acquire(int length) {
+        // 池中缓冲不够大就直接丢弃，保证池里留下的都是常用尺寸
+        float[] buf;
+        while ((buf = POOL.pollFirst()) != null) {
+            if (buf.length >= length) return buf;
+        }
+        return new float[Math.max(length, 5 + 16 * 4)];
+    }
+
+    private static void release(float[] buf) {
+        if (POOL.size() < MAX_POOLED) POOL.addFirst(buf);
+    }
+
+    private static int find(int key) {
+        int slot = mix(key) & mask;
+        while (true) {
+            int k = keys[slot];
+            if (k == key) return slot;
+            if (k == EMPTY_KEY) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int insert(int key) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY_KEY) slot = (slot + 1) & mask;
+        keys[slot]    = key;
+        payload[slot] = null;
+        size++;
+        return slot;
+    }
+
+    private static void removeSlot(int slot) {
+        size--;
+        if (payload[slot] != null) release(payload[slot]);
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY_KEY) {
+            int ideal = mix(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole]    = EMPTY_KEY;
+        payload[hole] = null;
+    }
+
+    private static void move(int from, int to) {
+        keys[to]       = keys[from];
+        frames[to]     = frames[from];
+        inX[to]        = inX[from];
+        inY[to]        = inY[from];
+        inZ[to]        = inZ[from];
+        inStrength[to] = inStrength[from];
+        inRadius[to]   = inRadius[from];
+        inBaby[to]     = inBaby[from];
+        payload[to]    = payload[from];
+    }
+
+    private static void allocate(int capacity) {
+        keys       = new int[capacity];
+        frames     = new long[capacity];
+        inX        = new double[capacity];
+        inY        = new double[capacity];
+        inZ        = new double[capacity];
+        inStrength = new float[capacity];
+        inRadius   = new float[capacity];
+        inBaby     = new boolean[capacity];
+        payload    = new float[capacity][];
+        mask       = capacity - 1;
+        Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    private static void rehash(int capacity) {
+        int[]     oKeys = keys;
+        long[]    oFrames = frames;
+        double[]  oX = inX, oY = inY, oZ = inZ;
+        float[]   oStrength = inStrength, oRadius = inRadius;
+        boolean[] oBaby = inBaby;
+        float[][] oPayload = payload;
+
+        allocate(capacity);
+        for (int i = 0; i < oKeys.length; i++) {
+            if (oKeys[i] == EMPTY_KEY) continue;
+            int slot = mix(oKeys[i]) & mask;
+            while (keys[slot] != EMPTY_KEY) slot = (slot + 1) & mask;
+            keys[slot]       = oKeys[i];
+            frames[slot]     = oFrames[i];
+            inX[slot]        = oX[i];
+            inY[slot]        = oY[i];
+            inZ[slot]        = oZ[i];
+            inStrength[slot] = oStrength[i];
+            inRadius[slot]   = oRadius[i];
+            inBaby[slot]     = oBaby[i];
+            payload[slot]    = oPayload[i];
         }
-        return null;
     }
 
-    /** 将本帧计算结果存入缓存。 */
-    public static void put(int entityId, float[] data) {
-        DATA.put(entityId, data);
-        FRAMES.put(entityId, currentFrame);
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,78 @@
+package com.wzz.better_entity_render;
+
+import net.minecraft.util.Mth;
+
+/**
+ * {@link ShadowRendererNative#computeShadowData} 的纯 Java 实现，native 库不可用时使用。
+ *
+ * 输出布局与 native 版本相同，但结果写入每线程复用的缓冲区而不是每次分配新数组：
+ * 返回的数组在同一线程下次调用前有效，长度可能大于 5 + count * 4，以 [0] 的 count 为准。
+ */
+public final class ShadowRendererJava {
+
+    private static final int INITIAL_BLOCKS = 64;
+
+    private static final ThreadLocal<float[][]> BUFFER =
+            ThreadLocal.withInitial(() -> new float[][] { new float[5 + INITIAL_BLOCKS * 4] });
+
+    private ShadowRendererJava() {}
+
+    /** 参数和返回布局见 {@link ShadowRendererNative#computeShadowData}，f2 <= 0 的方块已过滤。 */
+    public static float[] computeShadowData(
+            double xOld, double x,
+            double yOld, double y,
+            double zOld, double z,
+            float partialTick,
+            float shadowStrength,
+            float radius,
+            boolean isBaby) {
+
+        float f = isBaby ? radius * 0.5F : radius;
+
+        double d2 = Mth.lerp(partialTick, xOld, x);
+        double d0 = Mth.lerp(partialTick, yOld, y);
+        double d1 = Mth.lerp(partialTick, zOld, z);
+        float  f1 = Math.min(shadowStrength / 0.5F, f);
+
+        int minX = Mth.floor(d2 - f);
+        int maxX = Mth.floor(d2 + f);
+        int minY = Mth.floor(d0 - f1);
+        int maxY = Mth.floor(d0);
+        int minZ = Mth.floor(d1 - f);
+        int maxZ = Mth.floor(d1 + f);
+
+        int blocks = Math.max(0, (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1));
+        float[] out = ensureCapacity(5 + blocks * 4);
+
+        int count = 0;
+        for (int bz = minZ; bz <= maxZ; bz++) {
+            for (int bx = minX; bx <= maxX; bx++) {
+                for (int by = minY; by <= maxY; by++) {
+                    float f2 = shadowStrength - (float) (d0 - by) * 0.5F;
+                    if (f2 <= 0.0F) continue;
+                    int base = 5 + count * 4;
+                    out[base]     = Float.intBitsToFloat(bx);
+                    out[base + 1] = Float.intBitsToFloat(by);
+                    out[base + 2] = Float.intBitsToFloat(bz);
+                    out[base + 3] = f2;
+                    count++;
+                }
+            }
+        }
+
+        out[0] = Float.intBitsToFloat(count);
+        out[1] = (float) d2;
+        out[2] = (float) d0;
+        out[3] = (float) d1;
+        out[4] = f;
+        return out;
+    }
+
+    private static float[] ensureCapacity(int length) {
+        float[][] holder = BUFFER.get();
+        if (holder[0].length < length) {
+            holder[0] = new float[Math.max(length, holder[0].length * 2)];
+        }
+        return holder[0];
+    }
+}
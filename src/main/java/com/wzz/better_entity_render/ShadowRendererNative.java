@@ -3,8 +3,24 @@ package com.wzz.better_entity_render;
 import com.wzz.better_entity_render.util.LoaderUtil;
 
 public final class ShadowRendererNative {
+    private static final boolean AVAILABLE;
+
     static {
         LoaderUtil.load("better_entity_render");
+        boolean ok;
+        try {
+            computeShadowData(0, 0, 0, 0, 0, 0, 0.0F, 0.0F, 0.0F, false);
+            ok = true;
+        } catch (UnsatisfiedLinkError e) {
+            ok = false;
+        }
+        AVAILABLE = ok;
+        LoaderUtil.reportBackend("Shadow data", AVAILABLE);
+    }
+
+    /** native 库是否成功加载（非 Windows 平台为 false） */
+    public static boolean isAvailable() {
+        return AVAILABLE;
     }
 
     /**
@@ -0,0 +1,320 @@
+package com.wzz.better_entity_render.collision;
+
+import com.wzz.better_entity_render.ModMain;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.util.Mth;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.LiquidBlock;
+import net.minecraft.world.level.block.PowderSnowBlock;
+import net.minecraft.world.level.block.ScaffoldingBlock;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.shapes.BooleanOp;
+import net.minecraft.world.phys.shapes.CollisionContext;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+
+import java.util.Arrays;
+
+/**
+ * 每个 Level 一份、只在一个游戏刻内有效的方块碰撞形状缓存，由该刻内所有实体的碰撞查询共享。
+ *
+ * 刷怪塔里上百个实体每刻都在收集同一片方块的碰撞形状，原版每次都要重新
+ * 取区块、读 block state、算形状并 move 到世界坐标（每个方块分配新的 VoxelShape）。
+ * 这里按方块位置缓存 block state 和已平移到世界坐标的碰撞形状（完整方块只记标志位）：
+ *   - gameTime 变化时整体清空（保留容量，不产生垃圾）
+ *   - 刻内方块变化（LevelChunk.setBlockState）时移除对应位置
+ *   - 遍历与判定逻辑与原版 BlockCollisions 一致（边界层只收大碰撞箱方块、棱只收移动中的活塞、角跳过）
+ *
+ * 碰撞形状与实体有关的方块（动态形状、流体、脚手架、细雪，以及
+ * {@link #CONTEXT_SENSITIVE} 标签中的方块）只缓存 block state，形状每次按实体的 CollisionContext 计算。
+ * 服务端和客户端都会用到；同一刻内非所属线程的查询不走缓存。
+ *
+ * 另外按 section 记录近期的方块变化、按区块列记录近期的区块加载卸载，
+ * 供 {@link RestingState} 判断静止实体周围的碰撞形状是否可能改变。
+ */
+public final class BlockShapeCache {
+
+    /** 碰撞形状依赖实体的模组方块可以加入该标签，避免被缓存 */
+    public static final TagKey<Block> CONTEXT_SENSITIVE =
+            TagKey.create(Registries.BLOCK, new ResourceLocation(ModMain.MODID, "context_sensitive_collision"));
+
+    private static final byte HAS_SHAPE = 1;
+    private static final byte FULL      = 2;
+    private static final byte EMPTY     = 4;
+    private static final byte CACHEABLE = 8;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** 静止实体复用碰撞结果的最长刻数，超过后重新完整计算一次 */
+    public static final int MAX_REST_TICKS = 40;
+
+    /** 由 Level mixin 实现，每个 Level 持有一份缓存 */
+    public interface Holder {
+        BlockShapeCache better_entity_render$blockShapeCache();
+    }
+
+    private final Level level;
+
+    // 方块位置 → 列下标；移除的位置只删索引，列中的旧数据下一刻覆盖
+    private final Long2IntOpenHashMap index = new Long2IntOpenHashMap(INITIAL_CAPACITY);
+    private BlockState[] states = new BlockState[INITIAL_CAPACITY];
+    private VoxelShape[] shapes = new VoxelShape[INITIAL_CAPACITY];
+    private byte[]       flags  = new byte[INITIAL_CAPACITY];
+    private int          size;
+
+    private long   tick = Long.MIN_VALUE;
+    private Thread owner;
+
+    // 供 RestingState 判断区域内方块是否变化：section → 最近一次方块变化的 gameTime。
+    // 只在有实体可能处于静止状态时记录（trackUntil 之前），过期条目在新的一刻开始时清理
+    private final Long2LongOpenHashMap changes = new Long2LongOpenHashMap();
+    // 区块列 → 最近一次完整加载 / 卸载的 gameTime，记录与清理规则同 changes
+    private final Long2LongOpenHashMap columns = new Long2LongOpenHashMap();
+    private long trackUntil = Long.MIN_VALUE;
+    // 其他线程修改方块、加载卸载区块时递增，使所有静止状态失效
+    private volatile int epoch;
+
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+    public BlockShapeCache(Level level) {
+        this.level = level;
+        index.defaultReturnValue(-1);
+    }
+
+    public static BlockShapeCache of(Level level) {
+        return ((Holder) level).better_entity_render$blockShapeCache();
+    }
+
+    /** 方块变化：移除该位置的缓存并记录变化（仅所属线程；其他线程的修改在下一刻清空时生效，并使静止状态全部失效） */
+    public void invalidate(BlockPos blockPos) {
+        if (owner != null && Thread.currentThread() != owner) {
+            epoch++;
+            return;
+        }
+        if (size > 0) index.remove(blockPos.asLong());
+        long now = level.getGameTime();
+        if (now <= trackUntil) changes.put(SectionPos.asLong(blockPos), now);
+    }
+
+    /** 区块加载或卸载：该列内 getChunkForCollisions 的结果可能改变（仅所属线程按列记录，其他线程同 invalidate） */
+    public void chunkChanged(int chunkX, int chunkZ) {
+        if (owner != null && Thread.currentThread() != owner) {
+            epoch++;
+            return;
+        }
+        long now = level.getGameTime();
+        if (now <= trackUntil) columns.put(ChunkPos.asLong(chunkX, chunkZ), now);
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    public long gameTime() {
+        return level.getGameTime();
+    }
+
+    /** 有实体在当前刻记录了静止状态，之后 MAX_REST_TICKS 刻内记录方块变化和区块加载卸载 */
+    public void track() {
+        trackUntil = level.getGameTime() + MAX_REST_TICKS;
+    }
+
+    /**
+     * 自 since 刻（含）以来，collect 在该范围内会访问的方块是否都没有变化。
+     * 范围外扩与 collect 相同（每边多一格），方块变化按 section、区块加载卸载按区块列判断。
+     */
+    public boolean unchangedSince(long since, int epoch,
+                                  double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        if (epoch != this.epoch || Thread.currentThread() != owner) return false;
+        long now = level.getGameTime();
+        if (now < since || now - since > MAX_REST_TICKS) return false;
+        if (changes.isEmpty() && columns.isEmpty()) return true;
+
+        int sx0 = (Mth.floor(minX - 1.0E-7) - 1) >> 4, sx1 = (Mth.floor(maxX + 1.0E-7) + 1) >> 4;
+        int sy0 = (Mth.floor(minY - 1.0E-7) - 1) >> 4, sy1 = (Mth.floor(maxY + 1.0E-7) + 1) >> 4;
+        int sz0 = (Mth.floor(minZ - 1.0E-7) - 1) >> 4, sz1 = (Mth.floor(maxZ + 1.0E-7) + 1) >> 4;
+        if (!columns.isEmpty()) {
+            for (int z = sz0; z <= sz1; z++) {
+                for (int x = sx0; x <= sx1; x++) {
+                    if (columns.getOrDefault(ChunkPos.asLong(x, z), Long.MIN_VALUE) >= since) return false;
+                }
+            }
+        }
+        if (changes.isEmpty()) return true;
+        for (int z = sz0; z <= sz1; z++) {
+            for (int y = sy0; y <= sy1; y++) {
+                for (int x = sx0; x <= sx1; x++) {
+                    if (changes.getOrDefault(SectionPos.asLong(x, y, z), Long.MIN_VALUE) >= since) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把与 {@code level.getBlockCollisions(entity, box)} 相同的方块碰撞形状按原版顺序追加到 out（不含世界边界）。
+     * 完整方块只写入坐标，不产生 VoxelShape。
+     */
+    public void collect(Entity entity, double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                        CollisionBoxes out) {
+        if (!begin()) {
+            out.markUnstable();
+            for (VoxelShape shape : level.getBlockCollisions(entity, new AABB(minX, minY, minZ, maxX, maxY, maxZ))) {
+                out.addShape(shape);
+            }
+            return;
+        }
+
+        CollisionContext context     = entity == null ? CollisionContext.empty() : CollisionContext.of(entity);
+        VoxelShape       entityShape = null;   // 只在遇到非完整方块时创建
+
+        int x0 = Mth.floor(minX - 1.0E-7) - 1, x1 = Mth.floor(maxX + 1.0E-7) + 1;
+        int y0 = Mth.floor(minY - 1.0E-7) - 1, y1 = Mth.floor(maxY + 1.0E-7) + 1;
+        int z0 = Mth.floor(minZ - 1.0E-7) - 1, z1 = Mth.floor(maxZ + 1.0E-7) + 1;
+
+        // 同一区块列连续查询时复用
+        long        lastColumn = Long.MIN_VALUE;
+        BlockGetter chunk      = null;
+
+        // 与 Cursor3D 相同的遍历顺序：x 最内层，其次 y，最外层 z
+        for (int z = z0; z <= z1; z++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    int edges = (x == x0 || x == x1 ? 1 : 0) + (y == y0 || y == y1 ? 1 : 0) + (z == z0 || z == z1 ? 1 : 0);
+                    if (edges == 3) continue;
+
+                    long column = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+                    if (column != lastColumn) {
+                        lastColumn = column;
+                        chunk      = level.getChunkForCollisions(x >> 4, z >> 4);
+                    }
+                    if (chunk == null) continue;
+
+                    int slot = slot(chunk, x, y, z);
+                    BlockState state = states[slot];
+                    if (edges == 1 && !state.hasLargeCollisionShape()) continue;
+                    if (edges == 2 && !state.is(Blocks.MOVING_PISTON)) continue;
+
+                    VoxelShape shape;
+                    int f = flags[slot];
+                    if ((f & CACHEABLE) != 0) {
+                        if ((f & HAS_SHAPE) == 0) f = resolve(slot, x, y, z);
+                        if ((f & EMPTY) != 0) continue;
+                        shape = shapes[slot];
+                    } else {
+                        out.markUnstable();
+                        pos.set(x, y, z);
+                        VoxelShape raw = state.getCollisionShape(level, pos, context);
+                        if (raw == Shapes.block()) {
+                            f     = FULL;
+                            shape = null;
+                        } else {
+                            f     = 0;
+                            shape = raw.move(x, y, z);
+                            if (shape.isEmpty()) continue;
+                        }
+                    }
+
+                    if ((f & FULL) != 0) {
+                        // 与 AABB.intersects 相同的严格比较
+                        if (minX < x + 1.0 && maxX > x && minY < y + 1.0 && maxY > y && minZ < z + 1.0 && maxZ > z) {
+                            out.addBox(x, y, z, x + 1.0, y + 1.0, z + 1.0);
+                        }
+                    } else {
+                        if (entityShape == null) entityShape = Shapes.create(minX, minY, minZ, maxX, maxY, maxZ);
+                        if (Shapes.joinIsNotEmpty(shape, entityShape, BooleanOp.AND)) out.addShape(shape);
+                    }
+                }
+            }
+        }
+    }
+
+    /** 进入新的一刻时清空；@return 当前线程可以使用缓存 */
+    private boolean begin() {
+        long now = level.getGameTime();
+        if (now != tick) {
+            tick  = now;
+            owner = Thread.currentThread();
+            index.clear();
+            Arrays.fill(states, 0, size, null);
+            Arrays.fill(shapes, 0, size, null);
+            size = 0;
+            prune(changes, now - MAX_REST_TICKS);
+            prune(columns, now - MAX_REST_TICKS);
+        }
+        return Thread.currentThread() == owner;
+    }
+
+    /** 移除早于 cutoff 的变化记录 */
+    private static void prune(Long2LongOpenHashMap times, long cutoff) {
+        if (times.isEmpty()) return;
+        ObjectIterator<Long2LongMap.Entry> it = times.long2LongEntrySet().fastIterator();
+        while (it.hasNext()) {
+            if (it.next().getLongValue() < cutoff) it.remove();
+        }
+    }
+
+    /** 该位置的列下标，未缓存时读取 block state 新建一列 */
+    private int slot(BlockGetter chunk, int x, int y, int z) {
+        long key  = BlockPos.asLong(x, y, z);
+        int  slot = index.get(key);
+        if (slot >= 0) return slot;
+
+        if (size == states.length) grow();
+        slot = size++;
+        pos.set(x, y, z);
+        BlockState state = chunk.getBlockState(pos);
+        states[slot] = state;
+        shapes[slot] = null;
+        flags[slot]  = cacheable(state) ? CACHEABLE : 0;
+        index.put(key, slot);
+        return slot;
+    }
+
+    /** 计算与实体无关的碰撞形状并平移到世界坐标 */
+    private int resolve(int slot, int x, int y, int z) {
+        pos.set(x, y, z);
+        VoxelShape raw = states[slot].getCollisionShape(level, pos, CollisionContext.empty());
+        int f = CACHEABLE | HAS_SHAPE;
+        if (raw == Shapes.block()) {
+            // 完整方块由坐标直接表示，不保存形状
+            f |= FULL;
+        } else {
+            VoxelShape moved = raw.move(x, y, z);
+            if (moved.isEmpty()) f |= EMPTY;
+            else shapes[slot] = moved;
+        }
+        flags[slot] = (byte) f;
+        return f;
+    }
+
+    private static boolean cacheable(BlockState state) {
+        Block block = state.getBlock();
+        return !block.hasDynamicShape()
+                && !(block instanceof LiquidBlock)
+                && !(block instanceof ScaffoldingBlock)
+                && !(block instanceof PowderSnowBlock)
+                && !state.is(CONTEXT_SENSITIVE);
+    }
+
+    private void grow() {
+        int capacity = states.length * 2;
+        states = Arrays.copyOf(states, capacity);
+        shapes = Arrays.copyOf(shapes, capacity);
+        flags  = Arrays.copyOf(flags, capacity);
+    }
+}
@@ -0,0 +1,177 @@
+package com.wzz.better_entity_render.collision;
+
+import net.minecraft.core.Direction;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+
+import java.util.Arrays;
+
+/**
+ * 一次碰撞计算用到的全部形状，按原版列表顺序平铺存放（每线程复用，不分配）。
+ *
+ * 每条记录要么是一个长方体（完整方块、实体包围盒，坐标存在 coords 中），
+ * 要么是其他形状（楼梯、世界边界等，存 VoxelShape 引用，扫掠时调用原版 collide）。
+ * 长方体的扫掠与 VoxelShape.collideX 对单格形状的结果逐位一致（相同的 1.0E-7 容差和比较方向）；
+ * 各记录依次收窄位移，任一时刻 |d| < 1.0E-7 即归零，与 Shapes.collide 相同。
+ *
+ * 盒子布局 [minX, minY, minZ, maxX, maxY, maxZ]，轴下标 0 = X、1 = Y、2 = Z。
+ */
+public final class CollisionBoxes {
+
+    private static final double EPSILON = 1.0E-7;
+    private static final Direction.Axis[] AXES = {Direction.Axis.X, Direction.Axis.Y, Direction.Axis.Z};
+
+    private double[]     coords = new double[6 * 64];
+    private VoxelShape[] shapes = new VoxelShape[64];   // null 表示长方体记录
+    private int          size;
+    // 含有不经方块更新也会变化的形状（与实体有关的方块形状、回退到原版查询的结果）
+    private boolean      unstable;
+
+    // 扫掠中的盒子
+    private final double[] box = new double[6];
+
+    public void clear() {
+        Arrays.fill(shapes, 0, size, null);
+        size = 0;
+        unstable = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void markUnstable() {
+        unstable = true;
+    }
+
+    /** 所有形状只会随方块更新、区块加载卸载而变化，碰撞结果可以被 {@link RestingState} 复用 */
+    public boolean isStable() {
+        return !unstable;
+    }
+
+    public void addBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        int i = next();
+        int b = i * 6;
+        coords[b]     = minX; coords[b + 1] = minY; coords[b + 2] = minZ;
+        coords[b + 3] = maxX; coords[b + 4] = maxY; coords[b + 5] = maxZ;
+        shapes[i] = null;
+    }
+
+    public void addShape(VoxelShape shape) {
+        shapes[next()] = shape;
+    }
+
+    /**
+     * 等价于 addShape(Shapes.create(bb))：
+     * 退化盒子是空形状；完全落在 [0, 1] 内的盒子可能被原版对齐到 1/8 网格，仍交给原版形状处理。
+     */
+    public void addEntityBox(AABB bb) {
+        if (bb.maxX - bb.minX < EPSILON || bb.maxY - bb.minY < EPSILON || bb.maxZ - bb.minZ < EPSILON) {
+            addShape(Shapes.empty());
+        } else if (inUnitRange(bb.minX, bb.maxX) && inUnitRange(bb.minY, bb.maxY) && inUnitRange(bb.minZ, bb.maxZ)) {
+            addShape(Shapes.create(bb));
+        } else {
+            addBox(bb.minX, bb.minY, bb.minZ, bb.maxX, bb.maxY, bb.maxZ);
+        }
+    }
+
+    /** 复制 from 的前 count 条记录到本列表末尾 */
+    public void addAll(CollisionBoxes from, int count) {
+        for (int i = 0; i < count; i++) {
+            if (from.shapes[i] != null) {
+                addShape(from.shapes[i]);
+            } else {
+                int b = i * 6;
+                addBox(from.coords[b], from.coords[b + 1], from.coords[b + 2],
+                       from.coords[b + 3], from.coords[b + 4], from.coords[b + 5]);
+            }
+        }
+    }
+
+    /**
+     * 同 Entity.collideWithShapes：先 Y，再按绝对值较小的水平分量优先，结果写入 out[0..2]。
+     */
+    public void collide(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                        double dx, double dy, double dz, double[] out) {
+        if (size == 0) {
+            out[0] = dx; out[1] = dy; out[2] = dz;
+            return;
+        }
+        box[0] = minX; box[1] = minY; box[2] = minZ;
+        box[3] = maxX; box[4] = maxY; box[5] = maxZ;
+
+        if (dy != 0.0) {
+            dy = sweep(1, dy);
+            if (dy != 0.0) move(1, dy);
+        }
+        boolean zFirst = Math.abs(dx) < Math.abs(dz);
+        if (zFirst && dz != 0.0) {
+            dz = sweep(2, dz);
+            if (dz != 0.0) move(2, dz);
+        }
+        if (dx != 0.0) {
+            dx = sweep(0, dx);
+            if (!zFirst && dx != 0.0) move(0, dx);
+        }
+        if (!zFirst && dz != 0.0) {
+            dz = sweep(2, dz);
+        }
+        out[0] = dx; out[1] = dy; out[2] = dz;
+    }
+
+    /** 同 Shapes.collide：按记录顺序逐个收窄位移 */
+    private double sweep(int axis, double d) {
+        AABB current = null;
+        for (int i = 0; i < size; i++) {
+            if (Math.abs(d) < EPSILON) return 0.0;
+            VoxelShape shape = shapes[i];
+            if (shape == null) {
+                d = sweepBox(i * 6, axis, d);
+            } else {
+                if (current == null) current = new AABB(box[0], box[1], box[2], box[3], box[4], box[5]);
+                d = shape.collide(AXES[axis], current, d);
+            }
+        }
+        return d;
+    }
+
+    /** VoxelShape.collideX 在单格形状上的展开 */
+    private double sweepBox(int b, int axis, double d) {
+        for (int o = 0; o < 3; o++) {
+            if (o == axis) continue;
+            if (!(box[o] + EPSILON < coords[b + 3 + o] && box[3 + o] - EPSILON >= coords[b + o])) return d;
+        }
+        if (d > 0.0) {
+            double min = coords[b + axis];
+            if (box[3 + axis] - EPSILON < min) {
+                double gap = min - box[3 + axis];
+                if (gap >= -EPSILON) d = Math.min(d, gap);
+            }
+        } else if (d < 0.0) {
+            double max = coords[b + 3 + axis];
+            if (box[axis] + EPSILON >= max) {
+                double gap = max - box[axis];
+                if (gap <= EPSILON) d = Math.max(d, gap);
+            }
+        }
+        return d;
+    }
+
+    private void move(int axis, double d) {
+        box[axis]     += d;
+        box[3 + axis] += d;
+    }
+
+    private int next() {
+        if (size == shapes.length) {
+            shapes = Arrays.copyOf(shapes, size * 2);
+            coords = Arrays.copyOf(coords, size * 12);
+        }
+        return size++;
+    }
+
+    private static boolean inUnitRange(double min, double max) {
+        return !(min < -EPSILON) && !(max > 1.0000001);
+    }
+}
@@ -0,0 +1,320 @@
+package com.wzz.better_entity_render.collision;
+
+import com.wzz.better_entity_render.ModMain;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntitySelector;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.vehicle.AbstractMinecart;
+import net.minecraft.world.entity.vehicle.Boat;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import net.minecraftforge.entity.PartEntity;
+
+import java.util.ArrayList;
+
+/**
+ * 每个 Level 一份的实体碰撞空间哈希，代替 {@code level.getEntityCollisions} 的按 section 全量扫描。
+ *
+ * 实体按包围盒覆盖的 4x4x4 格子登记，随 Entity.onAddedToWorld / onRemovedFromWorld（Level 开始 / 结束跟踪实体）
+ * 和 setBoundingBox 增量维护（包围盒所在格子范围不变时只检查 collidable 成员资格）。两张表：
+ *   - collidable：canBeCollidedWith 为 true 的实体（船、矿车、潜影贝等），普通实体移动时只查这张表，
+ *     刷怪塔里成百上千的生物不再被逐个扫描；登记时和每次 setBoundingBox 时 canBeCollidedWith 为 true 即加入，
+ *     之后不再移出（变回 false 的实体由查询时的谓词排除）
+ *   - all：全部实体，供船、矿车等重写了 canCollideWith（还会与可推动的生物碰撞）的实体使用
+ * 候选实体仍按原版谓词（非旁观者、self.canCollideWith、包围盒相交）逐个判定，PartEntity 与原版相同单独遍历。
+ *
+ * 仅 Level 所属线程维护和查询；检测到其他线程修改已加入世界的实体后本 Level 永久回退到原版查询，
+ * 表由所属线程下次访问时释放（其他线程只置标记，不触碰表）。
+ */
+public final class EntityCollisionIndex {
+
+    /**
+     * canCollideWith 范围比原版默认更宽的模组实体可以加入该标签，查询时遍历全部实体。
+     * 限制：canBeCollidedWith 在实体原地不动（不调用 setBoundingBox）时由 false 变为 true 的模组实体，
+     * 要到下一次移动或重新登记时才进入 collidable 表，在此之前普通实体不会与它碰撞。
+     * 原版实体的 canBeCollidedWith 在登记时已确定（船、矿车恒为 true，潜影贝为 isAlive），不受影响。
+     */
+    public static final TagKey<EntityType<?>> BROAD_COLLISION =
+            TagKey.create(Registries.ENTITY_TYPE, new ResourceLocation(ModMain.MODID, "broad_entity_collision"));
+
+    private static final int CELL_SHIFT = 2;
+    // 包围盒单轴跨越超过该格数的实体放进 oversized 列表，每次查询都检查
+    private static final int MAX_CELL_SPAN = 8;
+
+    /** 由 Level mixin 实现，每个 Level 持有一份索引 */
+    public interface Holder {
+        EntityCollisionIndex better_entity_render$entityCollisionIndex();
+    }
+
+    private final Level level;
+    private final Int2ObjectOpenHashMap<Entry> entries    = new Int2ObjectOpenHashMap<>();
+    private final Grid                         all        = new Grid();
+    private final Grid                         collidable = new Grid();
+
+    // 其他线程只读取 owner、写入 broken，表只由 owner 线程访问
+    private volatile Thread  owner;
+    private volatile boolean broken;
+    private boolean          released;
+    private int              stamp;
+
+    public EntityCollisionIndex(Level level) {
+        this.level = level;
+    }
+
+    public static EntityCollisionIndex of(Level level) {
+        return ((Holder) level).better_entity_render$entityCollisionIndex();
+    }
+
+    /** 实体开始被 Level 跟踪（加入世界、所在区块加载） */
+    public void add(Entity entity) {
+        if (!ownedByCurrentThread()) return;
+        Entry old = entries.remove(entity.getId());
+        if (old != null) unlink(old);
+
+        Entry e = new Entry(entity);
+        e.collidable = entity.canBeCollidedWith();
+        cells(e, entity.getBoundingBox());
+        link(e);
+        entries.put(entity.getId(), e);
+    }
+
+    /** 实体结束被 Level 跟踪（移除 / 所在区块卸载 / 换维度） */
+    public void remove(Entity entity) {
+        if (!ownedByCurrentThread()) return;
+        Entry e = entries.get(entity.getId());
+        if (e != null && e.entity == entity) {
+            entries.remove(entity.getId());
+            unlink(e);
+        }
+    }
+
+    /** 包围盒变化（Entity.setBoundingBox） */
+    public void moved(Entity entity) {
+        if (broken) return;
+        if (Thread.currentThread() != owner) {
+            // 世界生成线程上构造、尚未加入世界的实体不影响索引；已加入的实体被其他线程移动则索引不再可信
+            if (owner != null && entity.isAddedToWorld()) broken = true;
+            return;
+        }
+        Entry e = entries.get(entity.getId());
+        if (e == null || e.entity != entity) return;
+
+        // collidable 成员只增不减：多余的成员由查询时的谓词排除
+        boolean nowCollidable = e.collidable || entity.canBeCollidedWith();
+        AABB bb = entity.getBoundingBox();
+        if (e.sameCells(bb)) {
+            if (nowCollidable && !e.collidable) {
+                e.collidable = true;
+                collidable.insert(e);
+            }
+            return;
+        }
+
+        unlink(e);
+        e.collidable = nowCollidable;
+        cells(e, bb);
+        link(e);
+    }
+
+    /**
+     * 把与 {@code level.getEntityCollisions(self, box)} 相同的实体形状追加到 out，
+     * 实体包围盒直接写入坐标，不创建 VoxelShape 和中间列表。
+     */
+    public void collect(Entity self, double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                        CollisionBoxes out) {
+        if (self == null || Thread.currentThread() != owner || !usable()) {
+            fallback(self, minX, minY, minZ, maxX, maxY, maxZ, out);
+            return;
+        }
+        // AABB.getSize()
+        if (((maxX - minX) + (maxY - minY) + (maxZ - minZ)) / 3.0 < 1.0E-7) return;
+
+        // box.inflate(1.0E-7)
+        double qMinX = minX - 1.0E-7, qMinY = minY - 1.0E-7, qMinZ = minZ - 1.0E-7;
+        double qMaxX = maxX + 1.0E-7, qMaxY = maxY + 1.0E-7, qMaxZ = maxZ + 1.0E-7;
+        Grid grid  = broad(self) ? all : collidable;
+        int  token = ++stamp;
+
+        int x0 = cell(qMinX), x1 = cell(qMaxX);
+        int y0 = cell(qMinY), y1 = cell(qMaxY);
+        int z0 = cell(qMinZ), z1 = cell(qMaxZ);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1) > (long) MAX_CELL_SPAN * MAX_CELL_SPAN * MAX_CELL_SPAN) {
+            fallback(self, minX, minY, minZ, maxX, maxY, maxZ, out);
+            return;
+        }
+
+        for (int cz = z0; cz <= z1; cz++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cx = x0; cx <= x1; cx++) {
+                    ArrayList<Entry> list = grid.cells.get(BlockPos.asLong(cx, cy, cz));
+                    if (list != null) collect(list, self, qMinX, qMinY, qMinZ, qMaxX, qMaxY, qMaxZ, token, out);
+                }
+            }
+        }
+        collect(grid.oversized, self, qMinX, qMinY, qMinZ, qMaxX, qMaxY, qMaxZ, token, out);
+
+        for (PartEntity<?> part : level.getPartEntities()) {
+            if (part == self) continue;
+            AABB bb = part.getBoundingBox();
+            if (intersects(bb, qMinX, qMinY, qMinZ, qMaxX, qMaxY, qMaxZ) && accepts(self, part)) out.addEntityBox(bb);
+        }
+    }
+
+    private static void collect(ArrayList<Entry> list, Entity self,
+                                double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                                int token, CollisionBoxes out) {
+        for (int i = 0, n = list.size(); i < n; i++) {
+            Entry e = list.get(i);
+            if (e.stamp == token) continue;
+            e.stamp = token;
+            Entity other = e.entity;
+            if (other == self || other.isRemoved()) continue;
+            AABB bb = other.getBoundingBox();
+            if (!intersects(bb, minX, minY, minZ, maxX, maxY, maxZ) || !accepts(self, other)) continue;
+            out.addEntityBox(bb);
+        }
+    }
+
+    private void fallback(Entity self, double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                          CollisionBoxes out) {
+        for (VoxelShape shape : level.getEntityCollisions(self, new AABB(minX, minY, minZ, maxX, maxY, maxZ))) {
+            out.addShape(shape);
+        }
+    }
+
+    /** 同 AABB.intersects */
+    private static boolean intersects(AABB bb, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        return bb.minX < maxX && bb.maxX > minX && bb.minY < maxY && bb.maxY > minY && bb.minZ < maxZ && bb.maxZ > minZ;
+    }
+
+    /** 原版 getEntityCollisions 的谓词 */
+    private static boolean accepts(Entity self, Entity other) {
+        return EntitySelector.NO_SPECTATORS.test(other) && self.canCollideWith(other);
+    }
+
+    private static boolean broad(Entity self) {
+        return self instanceof Boat || self instanceof AbstractMinecart || self.getType().is(BROAD_COLLISION);
+    }
+
+    private boolean ownedByCurrentThread() {
+        Thread current = Thread.currentThread();
+        if (owner == null) owner = current;
+        if (owner != current) {
+            // 其他线程修改了实体：索引不再可信，表留给 owner 线程释放
+            broken = true;
+            return false;
+        }
+        return usable();
+    }
+
+    /** 仅 owner 线程：索引仍可用时返回 true；已失效时释放表 */
+    private boolean usable() {
+        if (!broken) return true;
+        if (!released) {
+            released = true;
+            entries.clear();
+            all.clear();
+            collidable.clear();
+        }
+        return false;
+    }
+
+    private static int cell(double v) {
+        return (int) Math.floor(v) >> CELL_SHIFT;
+    }
+
+    private static void cells(Entry e, AABB bb) {
+        e.x0 = cell(bb.minX); e.x1 = cell(bb.maxX);
+        e.y0 = cell(bb.minY); e.y1 = cell(bb.maxY);
+        e.z0 = cell(bb.minZ); e.z1 = cell(bb.maxZ);
+    }
+
+    private void link(Entry e) {
+        all.insert(e);
+        if (e.collidable) collidable.insert(e);
+    }
+
+    private void unlink(Entry e) {
+        all.remove(e);
+        if (e.collidable) collidable.remove(e);
+    }
+
+    private static final class Entry {
+        final Entity entity;
+        boolean collidable;
+        int x0, y0, z0, x1, y1, z1;
+        int stamp;
+
+        Entry(Entity entity) {
+            this.entity = entity;
+        }
+
+        boolean oversized() {
+            return x1 - x0 >= MAX_CELL_SPAN || y1 - y0 >= MAX_CELL_SPAN || z1 - z0 >= MAX_CELL_SPAN;
+        }
+
+        boolean sameCells(AABB bb) {
+            return cell(bb.minX) == x0 && cell(bb.maxX) == x1
+                    && cell(bb.minY) == y0 && cell(bb.maxY) == y1
+                    && cell(bb.minZ) == z0 && cell(bb.maxZ) == z1;
+        }
+    }
+
+    /** 格子 → 实体列表（无序，删除时与末尾交换） */
+    private static final class Grid {
+        final Long2ObjectOpenHashMap<ArrayList<Entry>> cells     = new Long2ObjectOpenHashMap<>();
+        final ArrayList<Entry>                         oversized = new ArrayList<>();
+
+        void insert(Entry e) {
+            if (e.oversized()) {
+                oversized.add(e);
+                return;
+            }
+            for (int cz = e.z0; cz <= e.z1; cz++) {
+                for (int cy = e.y0; cy <= e.y1; cy++) {
+                    for (int cx = e.x0; cx <= e.x1; cx++) {
+                        cells.computeIfAbsent(BlockPos.asLong(cx, cy, cz), k -> new ArrayList<>(4)).add(e);
+                    }
+                }
+            }
+        }
+
+        void remove(Entry e) {
+            if (e.oversized()) {
+                swapRemove(oversized, e);
+                return;
+            }
+            for (int cz = e.z0; cz <= e.z1; cz++) {
+                for (int cy = e.y0; cy <= e.y1; cy++) {
+                    for (int cx = e.x0; cx <= e.x1; cx++) {
+                        long key = BlockPos.asLong(cx, cy, cz);
+                        ArrayList<Entry> list = cells.get(key);
+                        if (list == null) continue;
+                        swapRemove(list, e);
+                        if (list.isEmpty()) cells.remove(key);
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            cells.clear();
+            oversized.clear();
+        }
+
+        private static void swapRemove(ArrayList<Entry> list, Entry e) {
+            int i = list.indexOf(e);
+            if (i < 0) return;
+            int last = list.size() - 1;
+            list.set(i, list.get(last));
+            list.remove(last);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.wzz.better_entity_render.collision;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+/**
+ * 静止实体的碰撞结果（每个实体一份，由 Entity mixin 持有并复用）。
+ *
+ * 站在地上不动的实体（交易所里的村民、刷怪塔里的怪物）每刻都以同样的微小重力位移调用 collide，
+ * 结果也每刻相同。上一次完整计算后记录输入（包围盒、位移、onGround、maxUpStep）和结果，
+ * 下一刻输入逐位相同且以下条件都满足时直接返回上次的结果，跳过方块形状收集和扫掠：
+ *   - 查询范围内没有方块变化、没有区块加载卸载（{@link BlockShapeCache#unchangedSince}）
+ *   - 记录时没有实体形状、不靠近世界边界、没有与实体有关的方块形状（{@link CollisionBoxes#isStable}）
+ *   - 当前刻重新查询的实体形状仍为空、仍不靠近世界边界（由调用方判断）
+ * 被其他实体推动、自身开始移动时位移改变，自然回到完整计算；最长复用 {@link BlockShapeCache#MAX_REST_TICKS} 刻。
+ */
+public final class RestingState {
+
+    private AABB    box;
+    private double  dx, dy, dz;
+    private boolean onGround;
+    private float   stepHeight;
+    private Vec3    result;
+
+    // 记录时所在 Level 的缓存、gameTime / epoch 与方块查询范围
+    private BlockShapeCache blocks;
+    private long            tick;
+    private int             epoch;
+    private double          minX, minY, minZ, maxX, maxY, maxZ;
+
+    public void record(BlockShapeCache blocks,
+                       AABB box, double dx, double dy, double dz, boolean onGround, float stepHeight, Vec3 result,
+                       double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        blocks.track();
+        this.blocks     = blocks;
+        this.box        = box;
+        this.dx         = dx;
+        this.dy         = dy;
+        this.dz         = dz;
+        this.onGround   = onGround;
+        this.stepHeight = stepHeight;
+        this.result     = result;
+        this.tick       = blocks.gameTime();
+        this.epoch      = blocks.epoch();
+        this.minX = minX; this.minY = minY; this.minZ = minZ;
+        this.maxX = maxX; this.maxY = maxY; this.maxZ = maxZ;
+    }
+
+    public void clear() {
+        blocks = null;
+        box    = null;
+        result = null;
+    }
+
+    /** @return 可以复用的上次结果，不满足条件时返回 null */
+    public Vec3 get(BlockShapeCache blocks, AABB box, double dx, double dy, double dz, boolean onGround, float stepHeight) {
+        if (result == null || blocks != this.blocks
+                || Double.compare(dx, this.dx) != 0 || Double.compare(dy, this.dy) != 0 || Double.compare(dz, this.dz) != 0
+                || onGround != this.onGround || Float.compare(stepHeight, this.stepHeight) != 0
+                || !box.equals(this.box)) {
+            return null;
+        }
+        if (!blocks.unchangedSince(tick, epoch, minX, minY, minZ, maxX, maxY, maxZ)) {
+            clear();
+            return null;
+        }
+        return result;
+    }
+}
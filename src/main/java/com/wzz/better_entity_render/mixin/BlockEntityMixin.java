@@ -0,0 +1,31 @@
+package com.wzz.better_entity_render.mixin;
+
+import com.wzz.better_entity_render.EntityOcclusionCuller;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(BlockEntity.class)
+public abstract class BlockEntityMixin {
+
+    @Shadow
+    protected Level level;
+
+    @Shadow
+    @Final
+    protected BlockPos worldPosition;
+
+    /** 客户端方块实体移除（方块替换、区块卸载）时丢弃其遮挡状态，同一位置的新方块实体重新检测 */
+    @Inject(method = "setRemoved", at = @At("HEAD"))
+    private void onSetRemoved(CallbackInfo ci) {
+        if (level != null && level.isClientSide()) {
+            EntityOcclusionCuller.onBlockEntityRemoved(worldPosition, level);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.wzz.better_entity_render.mixin;
+
+import com.mojang.blaze3d.vertex.PoseStack;
+import com.wzz.better_entity_render.Config;
+import com.wzz.better_entity_render.DepthBufferCuller;
+import com.wzz.better_entity_render.EntityOcclusionCuller;
+import com.wzz.better_entity_render.occlusion.OcclusionStats;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.blockentity.BlockEntityRenderDispatcher;
+import net.minecraft.client.renderer.blockentity.BlockEntityRenderer;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.entity.TheEndGatewayBlockEntity;
+import net.minecraft.world.phys.AABB;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(BlockEntityRenderDispatcher.class)
+public abstract class BlockEntityRenderDispatcherMixin {
+
+    // 有限渲染盒超过该边长时不做遮挡检测
+    @Unique
+    private static final double better_entity_render$MAX_EXTENT = 64.0;
+
+    /**
+     * 方块实体（箱子、告示牌、旗帜、潜影盒等）渲染前检查遮挡，被遮挡直接跳过。
+     * 与实体共用同一遮挡引擎，结果按方块位置缓存。
+     */
+    @Inject(method = "render", at = @At("HEAD"), cancellable = true)
+    public <E extends BlockEntity> void onRender(
+            E blockEntity, float partialTick,
+            PoseStack poseStack, MultiBufferSource buffers,
+            CallbackInfo ci) {
+
+        if (!Config.OCCLUSION_CULL.get()) return;
+        if (!(blockEntity.getLevel() instanceof ClientLevel clientLevel)) return;
+
+        BlockEntityRenderer<E> renderer = ((BlockEntityRenderDispatcher) (Object) this).getRenderer(blockEntity);
+        AABB box = better_entity_render$cullingBox(renderer, blockEntity);
+        if (box == null) return;
+
+        boolean stats = Config.OCCLUSION_STATS.get();
+        long    start = stats ? System.nanoTime() : 0L;
+        boolean visible = Config.OCCLUSION_ENGINE.get() == Config.OcclusionEngine.DEPTH_BUFFER
+                ? DepthBufferCuller.isVisible(blockEntity, box, clientLevel)
+                : EntityOcclusionCuller.isVisible(blockEntity, box, clientLevel);
+        if (stats) OcclusionStats.recordTest(visible, System.nanoTime() - start);
+
+        if (!visible) {
+            ci.cancel();
+        }
+    }
+
+    /**
+     * 遮挡检测盒，null 表示不检测：
+     *   - 渲染器要求屏幕外也渲染（信标光柱、结构方块等）、末地折跃门
+     *   - Forge 对碰撞形状为空的方块（告示牌、旗帜等）默认返回无限渲染盒：改用方块所在格子外扩一格，
+     *     覆盖旗帜布面、挂在墙上的告示牌等超出本格的部分
+     *   - 其余边长超过 MAX_EXTENT 的渲染盒
+     */
+    @Unique
+    private static <E extends BlockEntity> AABB better_entity_render$cullingBox(BlockEntityRenderer<E> renderer, E blockEntity) {
+        if (renderer == null || renderer.shouldRenderOffScreen(blockEntity)) return null;
+        // 折跃门光柱同样是无限渲染盒，但确实远超本格
+        if (blockEntity instanceof TheEndGatewayBlockEntity) return null;
+
+        AABB aabb = blockEntity.getRenderBoundingBox();
+        double x = aabb.getXsize(), y = aabb.getYsize(), z = aabb.getZsize();
+        if (Double.isInfinite(x) || Double.isInfinite(y) || Double.isInfinite(z)) {
+            return new AABB(blockEntity.getBlockPos()).inflate(1.0);
+        }
+        if (x > better_entity_render$MAX_EXTENT || y > better_entity_render$MAX_EXTENT || z > better_entity_render$MAX_EXTENT) {
+            return null;
+        }
+        return aabb;
+    }
+}
@@ -1,22 +1,24 @@
 package com.wzz.better_entity_render.mixin;
 
-import com.google.common.collect.ImmutableList;
 import com.wzz.better_entity_render.Config;
+import com.wzz.better_entity_render.collision.BlockShapeCache;
+import com.wzz.better_entity_render.collision.CollisionBoxes;
+import com.wzz.better_entity_render.collision.EntityCollisionIndex;
+import com.wzz.better_entity_render.collision.RestingState;
+import net.minecraft.util.Mth;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.border.WorldBorder;
 import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
-import net.minecraft.world.phys.shapes.Shapes;
-import net.minecraft.world.phys.shapes.VoxelShape;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.util.List;
-
 @Mixin(Entity.class)
 public abstract class EntityCollisionMixin {
 
@@ -31,124 +33,186 @@ public abstract class EntityCollisionMixin {
 
     @Shadow private float maxUpStep;
 
+    // 静止时复用的上次碰撞结果，首次需要时创建
+    @Unique
+    private RestingState better_entity_render$resting;
+
+    /**
+     * 实体开始 / 结束被 Level 跟踪时登记 / 移除实体碰撞空间哈希。
+     * 两者由 EntityCallbacks.onTrackingStart / onTrackingEnd 调用，严格成对
+     * （EntityJoinLevelEvent 可能被取消、区块重新加载时也不会再次发出）。
+     * onAddedToWorld / onRemovedFromWorld 是 Forge 新增的方法，方法名不重映射。
+     */
+    @Inject(method = "onAddedToWorld", at = @At("TAIL"), remap = false)
+    private void onAddedToWorld(CallbackInfo ci) {
+        if (this.level != null) {
+            EntityCollisionIndex.of(this.level).add((Entity) (Object) this);
+        }
+    }
+
+    @Inject(method = "onRemovedFromWorld", at = @At("TAIL"), remap = false)
+    private void onRemovedFromWorld(CallbackInfo ci) {
+        if (this.level != null) {
+            EntityCollisionIndex.of(this.level).remove((Entity) (Object) this);
+        }
+    }
+
+    /** 包围盒变化时更新实体碰撞空间哈希（位置、尺寸变化最终都经过这里） */
+    @Inject(method = "setBoundingBox", at = @At("TAIL"))
+    private void onSetBoundingBox(AABB bb, CallbackInfo ci) {
+        if (this.level != null) {
+            EntityCollisionIndex.of(this.level).moved((Entity) (Object) this);
+        }
+    }
+
+    // 每线程复用的碰撞形状表和结果数组，collide 不再产生中间 Vec3 / AABB / 列表
+    @Unique
+    private static final ThreadLocal<CollisionBoxes> better_entity_render$SHAPES      = ThreadLocal.withInitial(CollisionBoxes::new);
+    @Unique
+    private static final ThreadLocal<CollisionBoxes> better_entity_render$STEP_SHAPES = ThreadLocal.withInitial(CollisionBoxes::new);
+    @Unique
+    private static final ThreadLocal<double[]>       better_entity_render$RESULT      = ThreadLocal.withInitial(() -> new double[3]);
+
     @Inject(method = "collide", at = @At("HEAD"), cancellable = true)
     private void onCollide(Vec3 movement, CallbackInfoReturnable<Vec3> cir) {
         if (!Config.COLLISION_OPT.get()) return;
 
-        AABB aabb = this.getBoundingBox();
+        double sx = movement.x, sy = movement.y, sz = movement.z;
+        if (sx * sx + sy * sy + sz * sz == 0.0) {
+            cir.setReturnValue(movement);
+            return;
+        }
+
         Entity self = (Entity)(Object)this;
+        AABB   aabb = this.getBoundingBox();
+        double minX = aabb.minX, minY = aabb.minY, minZ = aabb.minZ;
+        double maxX = aabb.maxX, maxY = aabb.maxY, maxZ = aabb.maxZ;
+
+        // aabb.expandTowards(movement)
+        double eMinX = sx < 0.0 ? minX + sx : minX, eMaxX = sx > 0.0 ? maxX + sx : maxX;
+        double eMinY = sy < 0.0 ? minY + sy : minY, eMaxY = sy > 0.0 ? maxY + sy : maxY;
+        double eMinZ = sz < 0.0 ? minZ + sz : minZ, eMaxZ = sz > 0.0 ? maxZ + sz : maxZ;
+
+        // 同 Entity.collideBoundingBox 的形状顺序：实体、世界边界、方块。
+        // 实体形状取自空间哈希，方块形状取自本刻共享缓存
+        CollisionBoxes shapes = better_entity_render$SHAPES.get();
+        shapes.clear();
+        EntityCollisionIndex.of(this.level).collect(self, eMinX, eMinY, eMinZ, eMaxX, eMaxY, eMaxZ, shapes);
+        int entityCount = shapes.size();
+
+        WorldBorder border     = this.level.getWorldBorder();
+        boolean     nearBorder = better_entity_render$nearBorder(border, self, eMaxX - eMinX, eMaxZ - eMinZ);
+        if (nearBorder) shapes.addShape(border.getCollisionShape());
+
+        BlockShapeCache blocks     = BlockShapeCache.of(this.level);
+        boolean         wasGround  = this.onGround();
+        float           stepHeight = this.maxUpStep;
+
+        // 静止实体：输入与上一刻相同、周围没有方块变化时直接复用结果，跳过方块形状收集。
+        // 实体形状和世界边界每刻重新判断，有任何一个时都完整计算
+        boolean canRest = entityCount == 0 && !nearBorder && Config.COLLISION_REST.get();
+        if (canRest && this.better_entity_render$resting != null) {
+            Vec3 rested = this.better_entity_render$resting.get(blocks, aabb, sx, sy, sz, wasGround, stepHeight);
+            if (rested != null) {
+                cir.setReturnValue(rested);
+                return;
+            }
+        }
 
-        List<VoxelShape> entityShapes = this.level.getEntityCollisions(self, aabb.expandTowards(movement));
+        blocks.collect(self, eMinX, eMinY, eMinZ, eMaxX, eMaxY, eMaxZ, shapes);
 
-        Vec3 vec3 = movement.lengthSqr() == 0.0 ? movement
-                : Entity.collideBoundingBox(self, movement, aabb, this.level, entityShapes);
+        double[] r = better_entity_render$RESULT.get();
+        shapes.collide(minX, minY, minZ, maxX, maxY, maxZ, sx, sy, sz, r);
+        double vx = r[0], vy = r[1], vz = r[2];
 
-        boolean xChanged = movement.x != vec3.x;
-        boolean yChanged = movement.y != vec3.y;
-        boolean zChanged = movement.z != vec3.z;
-        boolean onGround  = this.onGround() || (yChanged && movement.y < 0.0);
-        float   stepHeight = this.maxUpStep;
+        boolean xChanged = sx != vx;
+        boolean yChanged = sy != vy;
+        boolean zChanged = sz != vz;
+        boolean onGround  = wasGround || (yChanged && sy < 0.0);
 
         if (stepHeight <= 0.0F || !onGround || (!xChanged && !zChanged)) {
-            cir.setReturnValue(vec3);
+            Vec3 result = better_entity_render$result(movement, vx, vy, vz);
+            if (canRest && result != movement && shapes.isStable()) {
+                better_entity_render$rest(blocks, aabb, sx, sy, sz, wasGround, stepHeight, result,
+                        eMinX, eMinY, eMinZ, eMaxX, eMaxY, eMaxZ);
+            }
+            cir.setReturnValue(result);
             return;
         }
 
         // 计算三次 collideBoundingBox 调用所需的最大 AABB 超集，
-        // 只做一次 getBlockCollisions。
-        double sx = movement.x, sy = movement.y, sz = movement.z;
-
+        // 只收集一次方块形状。
         // 三次调用涉及的 movement 向量：
         //   call1: (sx, stepHeight, sz)  on aabb
         //   call2: (0, stepHeight, 0)    on aabb.expandTowards(sx, 0, sz)
         //   call3: (sx, 0, sz)           on aabb.move(vec32)  ← vec32 未知，但 y 方向最多 stepHeight
-        // 超集：expandTowards 覆盖所有可能方向
-        double maxDx = Math.max(Math.abs(sx), 0.0) + 1.0;
+        // 超集：aabb.inflate 覆盖所有可能方向
+        double maxDx = Math.abs(sx) + 1.0;
         double maxDy = stepHeight + 1.0;
-        double maxDz = Math.max(Math.abs(sz), 0.0) + 1.0;
-        AABB superAABB = aabb.inflate(maxDx, maxDy, maxDz);
-
-        Iterable<VoxelShape> blockShapes = this.level.getBlockCollisions(self, superAABB);
-        // 合并实体形状和方块形状，后续复用
-        ImmutableList.Builder<VoxelShape> allShapesBuilder = ImmutableList.builder();
-        allShapesBuilder.addAll(entityShapes);
-        for (VoxelShape s : blockShapes) allShapesBuilder.add(s);
-        ImmutableList<VoxelShape> allShapes = allShapesBuilder.build();
-
-        WorldBorder border = this.level.getWorldBorder();
-        boolean nearBorder = border.isInsideCloseToBorder(self, aabb.expandTowards(movement));
-
-        ImmutableList<VoxelShape> shapesWithBorder;
-        if (nearBorder) {
-            shapesWithBorder = ImmutableList.<VoxelShape>builder()
-                    .addAll(allShapes)
-                    .add(border.getCollisionShape())
-                    .build();
-        } else {
-            shapesWithBorder = allShapes;
-        }
-
-        Vec3 vec31 = collideWithShapesStatic(new Vec3(sx, stepHeight, sz), aabb, shapesWithBorder);
-
-        Vec3 vec32 = collideWithShapesStatic(
-                new Vec3(0.0, stepHeight, 0.0),
-                aabb.expandTowards(sx, 0.0, sz),
-                shapesWithBorder
-        );
-
-        if (vec32.y < stepHeight) {
-            Vec3 vec33 = collideWithShapesStatic(
-                    new Vec3(sx, 0.0, sz),
-                    aabb.move(vec32),
-                    shapesWithBorder
-            ).add(vec32);
-
-            if (vec33.horizontalDistanceSqr() > vec31.horizontalDistanceSqr()) {
-                vec31 = vec33;
+        double maxDz = Math.abs(sz) + 1.0;
+
+        // 实体形状复用上面的结果，后面接超集内的方块形状
+        CollisionBoxes stepShapes = better_entity_render$STEP_SHAPES.get();
+        stepShapes.clear();
+        stepShapes.addAll(shapes, entityCount);
+        blocks.collect(self, minX - maxDx, minY - maxDy, minZ - maxDz, maxX + maxDx, maxY + maxDy, maxZ + maxDz, stepShapes);
+        if (nearBorder) stepShapes.addShape(border.getCollisionShape());
+
+        // vec31
+        stepShapes.collide(minX, minY, minZ, maxX, maxY, maxZ, sx, stepHeight, sz, r);
+        double ax = r[0], ay = r[1], az = r[2];
+
+        // vec32
+        stepShapes.collide(sx < 0.0 ? minX + sx : minX, minY, sz < 0.0 ? minZ + sz : minZ,
+                           sx > 0.0 ? maxX + sx : maxX, maxY, sz > 0.0 ? maxZ + sz : maxZ,
+                           0.0, stepHeight, 0.0, r);
+        double bx = r[0], by = r[1], bz = r[2];
+
+        if (by < stepHeight) {
+            // vec33 = collide(aabb.move(vec32)) + vec32
+            stepShapes.collide(minX + bx, minY + by, minZ + bz, maxX + bx, maxY + by, maxZ + bz, sx, 0.0, sz, r);
+            double cx = r[0] + bx, cy = r[1] + by, cz = r[2] + bz;
+
+            if (cx * cx + cz * cz > ax * ax + az * az) {
+                ax = cx; ay = cy; az = cz;
             }
         }
 
-        if (vec31.horizontalDistanceSqr() > vec3.horizontalDistanceSqr()) {
-            Vec3 yCorrection = collideWithShapesStatic(
-                    new Vec3(0.0, -vec31.y + sy, 0.0),
-                    aabb.move(vec31),
-                    shapesWithBorder
-            );
-            cir.setReturnValue(vec31.add(yCorrection));
+        Vec3 result;
+        if (ax * ax + az * az > vx * vx + vz * vz) {
+            stepShapes.collide(minX + ax, minY + ay, minZ + az, maxX + ax, maxY + ay, maxZ + az, 0.0, -ay + sy, 0.0, r);
+            result = new Vec3(ax + r[0], ay + r[1], az + r[2]);
         } else {
-            cir.setReturnValue(vec3);
+            result = better_entity_render$result(movement, vx, vy, vz);
         }
-    }
-
-    private static Vec3 collideWithShapesStatic(Vec3 movement, AABB aabb, List<VoxelShape> shapes) {
-        if (shapes.isEmpty()) return movement;
-
-        double dx = movement.x;
-        double dy = movement.y;
-        double dz = movement.z;
-
-        if (dy != 0.0) {
-            dy = Shapes.collide(net.minecraft.core.Direction.Axis.Y, aabb, shapes, dy);
-            if (dy != 0.0) aabb = aabb.move(0.0, dy, 0.0);
-        }
-
-        // 先处理绝对值较小的水平分量
-        boolean zFirst = Math.abs(dx) < Math.abs(dz);
-
-        if (zFirst && dz != 0.0) {
-            dz = Shapes.collide(net.minecraft.core.Direction.Axis.Z, aabb, shapes, dz);
-            if (dz != 0.0) aabb = aabb.move(0.0, 0.0, dz);
+        // 超集包含扫掠范围，方块变化按超集判断
+        if (canRest && result != movement && shapes.isStable() && stepShapes.isStable()) {
+            better_entity_render$rest(blocks, aabb, sx, sy, sz, wasGround, stepHeight, result,
+                    minX - maxDx, minY - maxDy, minZ - maxDz, maxX + maxDx, maxY + maxDy, maxZ + maxDz);
         }
+        cir.setReturnValue(result);
+    }
 
-        if (dx != 0.0) {
-            dx = Shapes.collide(net.minecraft.core.Direction.Axis.X, aabb, shapes, dx);
-            if (!zFirst && dx != 0.0) aabb = aabb.move(dx, 0.0, 0.0);
-        }
+    /** 记录本次完整计算的输入和结果 */
+    @Unique
+    private void better_entity_render$rest(BlockShapeCache blocks, AABB aabb, double sx, double sy, double sz,
+                                           boolean wasGround, float stepHeight, Vec3 result,
+                                           double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        if (this.better_entity_render$resting == null) this.better_entity_render$resting = new RestingState();
+        this.better_entity_render$resting.record(blocks, aabb, sx, sy, sz, wasGround, stepHeight, result,
+                minX, minY, minZ, maxX, maxY, maxZ);
+    }
 
-        if (!zFirst && dz != 0.0) {
-            dz = Shapes.collide(net.minecraft.core.Direction.Axis.Z, aabb, shapes, dz);
-        }
+    /** 同 WorldBorder.isInsideCloseToBorder，不创建 AABB */
+    @Unique
+    private static boolean better_entity_render$nearBorder(WorldBorder border, Entity self, double xSize, double zSize) {
+        double margin = Math.max(Mth.absMax(xSize, zSize), 1.0);
+        return border.getDistanceToBorder(self) < margin * 2.0 && border.isWithinBounds(self.getX(), self.getZ(), margin);
+    }
 
-        return new Vec3(dx, dy, dz);
+    /** 位移未被改变时直接返回原对象 */
+    @Unique
+    private static Vec3 better_entity_render$result(Vec3 movement, double x, double y, double z) {
+        return x == movement.x && y == movement.y && z == movement.z ? movement : new Vec3(x, y, z);
     }
-}
\ No newline at end of file
+}
@@ -3,14 +3,19 @@ package com.wzz.better_entity_render.mixin;
 import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.blaze3d.vertex.VertexConsumer;
 import com.wzz.better_entity_render.Config;
+import com.wzz.better_entity_render.DepthBufferCuller;
 import com.wzz.better_entity_render.EntityOcclusionCuller;
+import com.wzz.better_entity_render.ShadowBatch;
 import com.wzz.better_entity_render.ShadowCache;
+import com.wzz.better_entity_render.ShadowRendererJava;
 import com.wzz.better_entity_render.ShadowRendererNative;
+import com.wzz.better_entity_render.occlusion.OcclusionStats;
 import net.minecraft.client.Camera;
 import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.RenderType;
 import net.minecraft.client.renderer.entity.EntityRenderDispatcher;
 import net.minecraft.core.BlockPos;
+import net.minecraft.util.Mth;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.Mob;
 import net.minecraft.world.level.Level;
@@ -61,7 +66,14 @@ public abstract class EntityRenderDispatcherMixin {
         Level level = entity.level();
         if (!(level instanceof net.minecraft.client.multiplayer.ClientLevel clientLevel)) return;
 
-        if (!EntityOcclusionCuller.isVisible(entity, clientLevel)) {
+        boolean stats = Config.OCCLUSION_STATS.get();
+        long    start = stats ? System.nanoTime() : 0L;
+        boolean visible = Config.OCCLUSION_ENGINE.get() == Config.OcclusionEngine.DEPTH_BUFFER
+                ? DepthBufferCuller.isVisible(entity, clientLevel)
+                : EntityOcclusionCuller.isVisible(entity, clientLevel);
+        if (stats) OcclusionStats.recordTest(visible, System.nanoTime() - start);
+
+        if (!visible) {
             ci.cancel();
         }
     }
@@ -80,17 +92,37 @@ public abstract class EntityRenderDispatcherMixin {
         boolean isBaby = entity instanceof Mob mob && mob.isBaby();
         int entityId  = entity.getId();
 
-        // 同一帧同一实体直接复用
-        float[] data = ShadowCache.get(entityId);
+        double px = Mth.lerp(partialTick, entity.xOld, entity.getX());
+        double py = Mth.lerp(partialTick, entity.yOld, entity.getY());
+        double pz = Mth.lerp(partialTick, entity.zOld, entity.getZ());
+
+        // LOD：超出最大距离不画；超出一半距离只采样脚下几层（远处高低差造成的阴影看不出来）
+        double maxDist = Config.SHADOW_MAX_DISTANCE.get();
+        double distSq  = (px - better_entity_render$cachedCamX) * (px - better_entity_render$cachedCamX)
+                       + (py - better_entity_render$cachedCamY) * (py - better_entity_render$cachedCamY)
+                       + (pz - better_entity_render$cachedCamZ) * (pz - better_entity_render$cachedCamZ);
+        if (distSq > maxDist * maxDist) return;
+        int minLayer = distSq > maxDist * maxDist * 0.25
+                ? Mth.floor(py) - better_entity_render$SHADOW_FAR_LAYERS + 1
+                : Integer.MIN_VALUE;
+
+        // 插值位置等输入不变时直接复用（同一帧或跨帧）
+        float[] data = ShadowCache.get(entityId, px, py, pz, shadowStrength, radius, isBaby);
         if (data == null) {
-            data = ShadowRendererNative.computeShadowData(
-                    entity.xOld, entity.getX(),
-                    entity.yOld, entity.getY(),
-                    entity.zOld, entity.getZ(),
-                    partialTick, shadowStrength, radius, isBaby
-            );
-            if (data == null || data.length == 0) return;
-            ShadowCache.put(entityId, data);
+            float[] computed = ShadowRendererNative.isAvailable()
+                    ? ShadowRendererNative.computeShadowData(
+                            entity.xOld, entity.getX(),
+                            entity.yOld, entity.getY(),
+                            entity.zOld, entity.getZ(),
+                            partialTick, shadowStrength, radius, isBaby)
+                    // Java 回退写入线程复用缓冲区，由缓存复制保存
+                    : ShadowRendererJava.computeShadowData(
+                            entity.xOld, entity.getX(),
+                            entity.yOld, entity.getY(),
+                            entity.zOld, entity.getZ(),
+                            partialTick, shadowStrength, radius, isBaby);
+            if (computed == null || computed.length == 0) return;
+            data = ShadowCache.put(entityId, px, py, pz, shadowStrength, radius, isBaby, computed);
         }
 
         int count = Float.floatToRawIntBits(data[0]);
@@ -102,8 +134,11 @@ public abstract class EntityRenderDispatcherMixin {
         double d1 = data[3];
         float  f  = data[4];
 
+        // 世界渲染中写入整帧合批，其他场合（GUI 等）照旧写入调用方缓冲
         PoseStack.Pose       pose     = poseStack.last();
-        VertexConsumer       consumer = buffers.getBuffer(SHADOW_RENDER_TYPE);
+        VertexConsumer       consumer = ShadowBatch.isActive()
+                ? ShadowBatch.consumer(SHADOW_RENDER_TYPE)
+                : buffers.getBuffer(SHADOW_RENDER_TYPE);
         BlockPos.MutableBlockPos mpos = new BlockPos.MutableBlockPos();
 
         // chunk 列缓存：Z/X 外层循环保证同列 Y 共用同一个 ChunkAccess
@@ -117,6 +152,7 @@ public abstract class EntityRenderDispatcherMixin {
             int by   = Float.floatToRawIntBits(data[base + 1]);
             int bz   = Float.floatToRawIntBits(data[base + 2]);
             float f2 = data[base + 3];
+            if (by < minLayer) continue;
 
             mpos.set(bx, by, bz);
 
@@ -132,13 +168,17 @@ public abstract class EntityRenderDispatcherMixin {
         }
     }
 
-    // 相机位置缓存：避免每个实体调用 distanceToSqr 时反复 getPosition()
+    // 相机位置缓存：避免每个实体调用 distanceToSqr 时反复 getPosition()；阴影 LOD 同样使用（renderShadow 为静态方法）
+    @Unique
+    private static double better_entity_render$cachedCamX;
     @Unique
-    private double better_entity_render$cachedCamX;
+    private static double better_entity_render$cachedCamY;
     @Unique
-    private double better_entity_render$cachedCamY;
+    private static double better_entity_render$cachedCamZ;
+
+    // 远处阴影只采样实体脚下的层数
     @Unique
-    private double better_entity_render$cachedCamZ;
+    private static final int better_entity_render$SHADOW_FAR_LAYERS = 2;
 
     @Inject(method = "prepare", at = @At("TAIL"))
     public void onPrepare(Level level, Camera camera,
@@ -148,9 +188,18 @@ public abstract class EntityRenderDispatcherMixin {
         better_entity_render$cachedCamY = pos.y();
         better_entity_render$cachedCamZ = pos.z();
         ShadowCache.nextFrame();
+        ShadowBatch.beginFrame();
         if (!Config.OCCLUSION_CULL.get()) return;
-        EntityOcclusionCuller.updateCamera(pos.x(), pos.y(), pos.z());
-        EntityOcclusionCuller.flushTasks();
+
+        long start = System.nanoTime();
+        Config.OcclusionEngine engine = Config.OCCLUSION_ENGINE.get();
+        if (engine == Config.OcclusionEngine.DEPTH_BUFFER) {
+            DepthBufferCuller.beginFrame(level, camera);
+        } else {
+            EntityOcclusionCuller.updateCamera(pos.x(), pos.y(), pos.z(), camera.getYRot(), camera.getXRot());
+            EntityOcclusionCuller.flushTasks();
+        }
+        if (Config.OCCLUSION_STATS.get()) OcclusionStats.recordFrame(engine.name(), System.nanoTime() - start);
     }
 
     @Inject(
@@ -0,0 +1,30 @@
+package com.wzz.better_entity_render.mixin;
+
+import com.wzz.better_entity_render.collision.BlockShapeCache;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/** 方块实际发生变化时让该位置的刻内碰撞形状缓存失效 */
+@Mixin(LevelChunk.class)
+public abstract class LevelChunkMixin {
+
+    @Shadow
+    @Final
+    Level level;
+
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void onSetBlockState(BlockPos pos, BlockState state, boolean isMoving,
+                                 CallbackInfoReturnable<BlockState> cir) {
+        if (cir.getReturnValue() != null) {
+            BlockShapeCache.of(level).invalidate(pos);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.wzz.better_entity_render.mixin;
+
+import com.wzz.better_entity_render.collision.BlockShapeCache;
+import com.wzz.better_entity_render.collision.EntityCollisionIndex;
+import net.minecraft.world.level.Level;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+/**
+ * 每个 Level 持有一份刻内方块碰撞形状缓存（见 {@link BlockShapeCache}）
+ * 和实体碰撞空间哈希（见 {@link EntityCollisionIndex}）
+ */
+@Mixin(Level.class)
+public abstract class LevelMixin implements BlockShapeCache.Holder, EntityCollisionIndex.Holder {
+
+    @Unique
+    private BlockShapeCache better_entity_render$blockShapeCache;
+
+    @Unique
+    private EntityCollisionIndex better_entity_render$entityCollisionIndex;
+
+    @Override
+    public BlockShapeCache better_entity_render$blockShapeCache() {
+        if (better_entity_render$blockShapeCache == null) {
+            better_entity_render$blockShapeCache = new BlockShapeCache((Level) (Object) this);
+        }
+        return better_entity_render$blockShapeCache;
+    }
+
+    @Override
+    public EntityCollisionIndex better_entity_render$entityCollisionIndex() {
+        if (better_entity_render$entityCollisionIndex == null) {
+            better_entity_render$entityCollisionIndex = new EntityCollisionIndex((Level) (Object) this);
+        }
+        return better_entity_render$entityCollisionIndex;
+    }
+}
@@ -0,0 +1,61 @@
+package com.wzz.better_entity_render.mixin;
+
+import com.wzz.better_entity_render.Config;
+import com.wzz.better_entity_render.occlusion.OccluderCache;
+import com.wzz.better_entity_render.occlusion.SectionVisibility;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.client.Camera;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.culling.Frustum;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.Vec3;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 方块更新、区块数据到达、光照更新最终都会走 setSectionDirty，
+ * 在这里统一让遮挡缓存失效。
+ * setupRender 结束后记录本帧洪泛可达的 section，供射线剔除预筛（见 {@link SectionVisibility}）。
+ */
+@Mixin(LevelRenderer.class)
+public abstract class LevelRendererMixin {
+
+    @Shadow
+    @Final
+    private ObjectArrayList<LevelRenderer.RenderChunkInfo> renderChunksInFrustum;
+
+    @Shadow
+    private ClientLevel level;
+
+    @Inject(method = "setSectionDirty(IIIZ)V", at = @At("HEAD"))
+    private void onSetSectionDirty(int sectionX, int sectionY, int sectionZ,
+                                   boolean reRenderOnMainThread, CallbackInfo ci) {
+        OccluderCache.invalidate(sectionX, sectionY, sectionZ);
+    }
+
+    @Inject(method = "setupRender", at = @At("TAIL"))
+    private void onSetupRender(Camera camera, Frustum frustum, boolean hasCapturedFrustum,
+                               boolean isSpectator, CallbackInfo ci) {
+        if (level == null || !Config.OCCLUSION_CULL.get()
+                || Config.OCCLUSION_ENGINE.get() != Config.OcclusionEngine.RAY) {
+            SectionVisibility.clear();
+            return;
+        }
+
+        Vec3 pos = camera.getPosition();
+        SectionVisibility.begin(level, pos.x, pos.y, pos.z,
+                Minecraft.getInstance().options.getEffectiveRenderDistance());
+        for (int i = 0, n = renderChunksInFrustum.size(); i < n; i++) {
+            BlockPos origin = ((RenderChunkInfoAccessor) renderChunksInFrustum.get(i))
+                    .better_entity_render$getChunk().getOrigin();
+            SectionVisibility.mark(origin.getX() >> 4, origin.getY() >> 4, origin.getZ() >> 4);
+        }
+        SectionVisibility.end();
+    }
+}
@@ -0,0 +1,97 @@
+package com.wzz.better_entity_render.mixin;
+
+import com.mojang.blaze3d.vertex.PoseStack;
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import com.wzz.better_entity_render.Config;
+import com.wzz.better_entity_render.DepthBufferCuller;
+import com.wzz.better_entity_render.EntityOcclusionCuller;
+import net.minecraft.client.Camera;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.particle.Particle;
+import net.minecraft.client.particle.ParticleEngine;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.culling.Frustum;
+import net.minecraft.core.BlockPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.AABB;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ParticleEngine.class)
+public abstract class ParticleEngineMixin {
+
+    @Shadow
+    protected ClientLevel level;
+
+    // 本帧的引擎选择；0 = 不剔除，1 = 射线，2 = 深度缓冲
+    @Unique
+    private int better_entity_render$mode;
+
+    // 相邻粒子大多落在同一单元，缓存上一次的单元与结果
+    @Unique
+    private long better_entity_render$lastCell;
+    @Unique
+    private boolean better_entity_render$lastCellVisible;
+
+    @Inject(
+            method = "render(Lcom/mojang/blaze3d/vertex/PoseStack;Lnet/minecraft/client/renderer/MultiBufferSource$BufferSource;Lnet/minecraft/client/renderer/LightTexture;Lnet/minecraft/client/Camera;FLnet/minecraft/client/renderer/culling/Frustum;)V",
+            at = @At("HEAD"),
+            remap = false
+    )
+    private void onRenderStart(PoseStack poseStack, MultiBufferSource.BufferSource buffers,
+                               LightTexture lightTexture, Camera camera, float partialTick,
+                               Frustum frustum, CallbackInfo ci) {
+        if (!Config.OCCLUSION_CULL.get()) {
+            better_entity_render$mode = 0;
+        } else {
+            better_entity_render$mode = Config.OCCLUSION_ENGINE.get() == Config.OcclusionEngine.DEPTH_BUFFER ? 2 : 1;
+        }
+        better_entity_render$lastCell = Long.MIN_VALUE;
+    }
+
+    /**
+     * 逐粒子渲染前按所在单元检查遮挡，被遮挡的单元内粒子全部跳过。
+     * shouldCull() 为 false 的粒子（不参与视锥剔除的）照常渲染。
+     * render(..., Frustum) 是 Forge 新增的重载，方法名不重映射；Particle.render 仍需重映射。
+     */
+    @Redirect(
+            method = "render(Lcom/mojang/blaze3d/vertex/PoseStack;Lnet/minecraft/client/renderer/MultiBufferSource$BufferSource;Lnet/minecraft/client/renderer/LightTexture;Lnet/minecraft/client/Camera;FLnet/minecraft/client/renderer/culling/Frustum;)V",
+            at = @At(
+                    value = "INVOKE",
+                    target = "Lnet/minecraft/client/particle/Particle;render(Lcom/mojang/blaze3d/vertex/VertexConsumer;Lnet/minecraft/client/Camera;F)V",
+                    remap = true
+            ),
+            remap = false
+    )
+    private void onRenderParticle(Particle particle, VertexConsumer consumer, Camera camera, float partialTick) {
+        if (better_entity_render$mode != 0 && particle.shouldCull() && !better_entity_render$isCellVisible(particle)) {
+            return;
+        }
+        particle.render(consumer, camera, partialTick);
+    }
+
+    @Unique
+    private boolean better_entity_render$isCellVisible(Particle particle) {
+        AABB box   = particle.getBoundingBox();
+        int  shift = EntityOcclusionCuller.PARTICLE_CELL_SHIFT;
+        int  cx    = Mth.floor((box.minX + box.maxX) * 0.5) >> shift;
+        int  cy    = Mth.floor((box.minY + box.maxY) * 0.5) >> shift;
+        int  cz    = Mth.floor((box.minZ + box.maxZ) * 0.5) >> shift;
+
+        long cell = BlockPos.asLong(cx, cy, cz);
+        if (cell == better_entity_render$lastCell) return better_entity_render$lastCellVisible;
+
+        boolean visible = better_entity_render$mode == 2
+                ? DepthBufferCuller.isParticleCellVisible(cx, cy, cz, level)
+                : EntityOcclusionCuller.isParticleCellVisible(cx, cy, cz, level);
+        better_entity_render$lastCell        = cell;
+        better_entity_render$lastCellVisible = visible;
+        return visible;
+    }
+}
@@ -0,0 +1,13 @@
+package com.wzz.better_entity_render.mixin;
+
+import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.chunk.ChunkRenderDispatcher;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(LevelRenderer.RenderChunkInfo.class)
+public interface RenderChunkInfoAccessor {
+
+    @Accessor("chunk")
+    ChunkRenderDispatcher.RenderChunk better_entity_render$getChunk();
+}
@@ -0,0 +1,215 @@
+package com.wzz.better_entity_render.occlusion;
+
+import java.util.Arrays;
+
+/**
+ * 低分辨率 CPU 深度缓冲 + 分层最大深度（Hi-Z）。
+ *
+ * 深度为视线方向的线性距离（格），未覆盖像素为 +∞。
+ * 遮挡面按"四个角中最远的深度"整面写入，保证写入值不小于真实表面深度；
+ * 被测 AABB 取最近角深度，只有整块屏幕矩形内的遮挡深度都更近时才判定遮挡，
+ * 因此结果偏向可见，不会误剔除。
+ *
+ * 视图变换与 GameRenderer 一致：先绕 Y 轴转 (yRot + 180)，再绕 X 轴转 xRot，视线朝 -Z。
+ * 仅主线程使用，非线程安全。
+ */
+public final class DepthBuffer {
+
+    private static final double NEAR = 0.05;
+
+    private final int width, height;
+    // levels[0] 为全分辨率，之后每级 2x2 取最大值
+    private final float[][] levels;
+    private final int[] levelWidth, levelHeight;
+
+    private double camX, camY, camZ;
+    private double cosYaw, sinYaw, cosPitch, sinPitch;
+    private double scaleX, scaleY;
+
+    // 投影临时结果
+    private final double[] sx = new double[8], sy = new double[8], sd = new double[8];
+
+    public DepthBuffer(int width, int height) {
+        this.width  = width;
+        this.height = height;
+
+        int count = 1;
+        while ((width >> count) > 0 && (height >> count) > 0) count++;
+        levels      = new float[count][];
+        levelWidth  = new int[count];
+        levelHeight = new int[count];
+        for (int l = 0; l < count; l++) {
+            levelWidth[l]  = width >> l;
+            levelHeight[l] = height >> l;
+            levels[l] = new float[levelWidth[l] * levelHeight[l]];
+        }
+    }
+
+    /** 开始新的一帧：设置相机并清空深度 */
+    public void begin(double camX, double camY, double camZ,
+                      float yRot, float xRot, double fovYDegrees, double aspect) {
+        this.camX = camX;
+        this.camY = camY;
+        this.camZ = camZ;
+
+        double yaw   = Math.toRadians(yRot + 180.0);
+        double pitch = Math.toRadians(xRot);
+        cosYaw   = Math.cos(yaw);
+        sinYaw   = Math.sin(yaw);
+        cosPitch = Math.cos(pitch);
+        sinPitch = Math.sin(pitch);
+
+        double tanHalf = Math.tan(Math.toRadians(fovYDegrees) * 0.5);
+        scaleY = 0.5 * height / tanHalf;
+        scaleX = 0.5 * width / (tanHalf * aspect);
+
+        Arrays.fill(levels[0], Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * 绘制实心长方体朝向相机的面。
+     * @param faceMask 需要考虑的面（bit 0..5 = -X +X -Y +Y -Z +Z），被相邻实心块挡住的面可去掉
+     */
+    public void drawBox(double minX, double minY, double minZ,
+                        double maxX, double maxY, double maxZ, int faceMask) {
+        if ((faceMask & 1)  != 0 && camX < minX) drawQuad(minX, minY, minZ, minX, maxY, minZ, minX, maxY, maxZ, minX, minY, maxZ);
+        if ((faceMask & 2)  != 0 && camX > maxX) drawQuad(maxX, minY, minZ, maxX, maxY, minZ, maxX, maxY, maxZ, maxX, minY, maxZ);
+        if ((faceMask & 4)  != 0 && camY < minY) drawQuad(minX, minY, minZ, maxX, minY, minZ, maxX, minY, maxZ, minX, minY, maxZ);
+        if ((faceMask & 8)  != 0 && camY > maxY) drawQuad(minX, maxY, minZ, maxX, maxY, minZ, maxX, maxY, maxZ, minX, maxY, maxZ);
+        if ((faceMask & 16) != 0 && camZ < minZ) drawQuad(minX, minY, minZ, maxX, minY, minZ, maxX, maxY, minZ, minX, maxY, minZ);
+        if ((faceMask & 32) != 0 && camZ > maxZ) drawQuad(minX, minY, maxZ, maxX, minY, maxZ, maxX, maxY, maxZ, minX, maxY, maxZ);
+    }
+
+    /** 光栅化完成后构建 Hi-Z */
+    public void buildHierarchy() {
+        for (int l = 1; l < levels.length; l++) {
+            float[] src = levels[l - 1], dst = levels[l];
+            int sw = levelWidth[l - 1], w = levelWidth[l], h = levelHeight[l];
+            for (int y = 0; y < h; y++) {
+                int s0 = (y * 2) * sw, s1 = s0 + sw;
+                for (int x = 0; x < w; x++) {
+                    int sxi = x * 2;
+                    dst[y * w + x] = Math.max(
+                            Math.max(src[s0 + sxi], src[s0 + sxi + 1]),
+                            Math.max(src[s1 + sxi], src[s1 + sxi + 1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * AABB 是否被已绘制的遮挡物完全挡住。
+     * 跨越近平面或完全落在缓冲区外时返回 false（交给调用方按可见处理）。
+     */
+    public boolean isOccluded(double minX, double minY, double minZ,
+                              double maxX, double maxY, double maxZ) {
+        double nearest = Double.POSITIVE_INFINITY;
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < 8; c++) {
+            project(c, (c & 1) == 0 ? minX : maxX, (c & 2) == 0 ? minY : maxY, (c & 4) == 0 ? minZ : maxZ);
+            if (sd[c] < NEAR) return false;
+            nearest = Math.min(nearest, sd[c]);
+            x0 = Math.min(x0, sx[c]);
+            y0 = Math.min(y0, sy[c]);
+            x1 = Math.max(x1, sx[c]);
+            y1 = Math.max(y1, sy[c]);
+        }
+
+        // 外扩一个像素，覆盖按像素中心光栅化带来的误差
+        int px0 = (int) Math.floor(x0) - 1, py0 = (int) Math.floor(y0) - 1;
+        int px1 = (int) Math.floor(x1) + 1, py1 = (int) Math.floor(y1) + 1;
+        if (px1 < 0 || py1 < 0 || px0 >= width || py0 >= height) return false;
+        px0 = Math.max(px0, 0);
+        py0 = Math.max(py0, 0);
+        px1 = Math.min(px1, width - 1);
+        py1 = Math.min(py1, height - 1);
+
+        // 选一级使矩形不超过约 4x4 个 texel，一次比较就能给出结论
+        int level = 0;
+        while (level + 1 < levels.length
+                && ((px1 >> level) - (px0 >> level) > 3 || (py1 >> level) - (py0 >> level) > 3)) {
+            level++;
+        }
+        if (regionBehind(level, px0, py0, px1, py1, nearest)) return true;
+
+        // 粗层不够确定时，小矩形再用全分辨率复查
+        return level > 0
+                && (long) (px1 - px0 + 1) * (py1 - py0 + 1) <= 4096
+                && regionBehind(0, px0, py0, px1, py1, nearest);
+    }
+
+    /** 区域内所有遮挡深度都比 depth 近 */
+    private boolean regionBehind(int level, int px0, int py0, int px1, int py1, double depth) {
+        float[] buf = levels[level];
+        int w = levelWidth[level];
+        for (int y = py0 >> level, ye = py1 >> level; y <= ye; y++) {
+            for (int x = px0 >> level, xe = px1 >> level; x <= xe; x++) {
+                if (buf[y * w + x] >= depth) return false;
+            }
+        }
+        return true;
+    }
+
+    private void drawQuad(double ax, double ay, double az, double bx, double by, double bz,
+                          double cx, double cy, double cz, double dx, double dy, double dz) {
+        project(0, ax, ay, az);
+        project(1, bx, by, bz);
+        project(2, cx, cy, cz);
+        project(3, dx, dy, dz);
+
+        // 跨越近平面的面直接放弃（少一个遮挡物只会偏向可见）
+        float depth = 0;
+        for (int i = 0; i < 4; i++) {
+            if (sd[i] < NEAR) return;
+            depth = Math.max(depth, (float) sd[i]);
+        }
+        fillTriangle(0, 1, 2, depth);
+        fillTriangle(0, 2, 3, depth);
+    }
+
+    /** 按像素中心覆盖填充三角形，保留较近深度 */
+    private void fillTriangle(int a, int b, int c, float depth) {
+        double area = (sx[b] - sx[a]) * (sy[c] - sy[a]) - (sy[b] - sy[a]) * (sx[c] - sx[a]);
+        if (area == 0) return;
+        double sign = area > 0 ? 1 : -1;
+
+        int x0 = Math.max((int) Math.ceil(Math.min(sx[a], Math.min(sx[b], sx[c])) - 0.5), 0);
+        int y0 = Math.max((int) Math.ceil(Math.min(sy[a], Math.min(sy[b], sy[c])) - 0.5), 0);
+        int x1 = Math.min((int) Math.floor(Math.max(sx[a], Math.max(sx[b], sx[c])) - 0.5), width - 1);
+        int y1 = Math.min((int) Math.floor(Math.max(sy[a], Math.max(sy[b], sy[c])) - 0.5), height - 1);
+        if (x0 > x1 || y0 > y1) return;
+
+        float[] buf = levels[0];
+        for (int y = y0; y <= y1; y++) {
+            double py = y + 0.5;
+            for (int x = x0; x <= x1; x++) {
+                double px = x + 0.5;
+                if (edge(a, b, px, py) * sign < 0) continue;
+                if (edge(b, c, px, py) * sign < 0) continue;
+                if (edge(c, a, px, py) * sign < 0) continue;
+                int i = y * width + x;
+                if (depth < buf[i]) buf[i] = depth;
+            }
+        }
+    }
+
+    private double edge(int a, int b, double px, double py) {
+        return (sx[b] - sx[a]) * (py - sy[a]) - (sy[b] - sy[a]) * (px - sx[a]);
+    }
+
+    /** 世界坐标 → 屏幕像素坐标 + 线性深度，写入第 i 个临时槽 */
+    private void project(int i, double x, double y, double z) {
+        double rx = x - camX, ry = y - camY, rz = z - camZ;
+
+        double vx = rx * cosYaw + rz * sinYaw;
+        double vz = -rx * sinYaw + rz * cosYaw;
+        double vy = ry * cosPitch - vz * sinPitch;
+        double d  = -(ry * sinPitch + vz * cosPitch);
+
+        sd[i] = d;
+        if (d < NEAR) return;
+        sx[i] = width * 0.5 + vx / d * scaleX;
+        sy[i] = height * 0.5 - vy / d * scaleY;
+    }
+}
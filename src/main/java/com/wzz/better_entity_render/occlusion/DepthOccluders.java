@@ -0,0 +1,147 @@
+package com.wzz.better_entity_render.occlusion;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.minecraft.core.SectionPos;
+
+/**
+ * 把相机周围已发布的遮挡快照画进 {@link DepthBuffer}（仅主线程）。
+ *
+ * 由近到远遍历 section：
+ *   - 全实心 section 画成一个 16 格立方体
+ *   - 其余 section 画全实心的 4x4x4 宏单元
+ *   - 相机所在及相邻的 section 再逐个画非全实心宏单元中的实心方块（近处的墙、地板）
+ * 与相邻实心块贴合的面不画；达到 maxBoxes 后停止，远处遮挡物优先被舍弃。
+ */
+public final class DepthOccluders {
+
+    private static final int RADIUS_SECTIONS = 4;
+
+    // 按距离排序的 section 偏移（dx, dy, dz 三元组）
+    private static final int[] OFFSETS;
+
+    static {
+        int side  = RADIUS_SECTIONS * 2 + 1;
+        int count = side * side * side;
+        int[] order = new int[count];
+        int[] dist  = new int[count];
+        for (int i = 0; i < count; i++) {
+            int dx = i % side - RADIUS_SECTIONS;
+            int dz = i / side % side - RADIUS_SECTIONS;
+            int dy = i / (side * side) - RADIUS_SECTIONS;
+            order[i] = i;
+            dist[i]  = dx * dx + dy * dy + dz * dz;
+        }
+        IntArrays.quickSort(order, (a, b) -> Integer.compare(dist[a], dist[b]));
+
+        OFFSETS = new int[count * 3];
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            OFFSETS[k * 3]     = i % side - RADIUS_SECTIONS;
+            OFFSETS[k * 3 + 1] = i / (side * side) - RADIUS_SECTIONS;
+            OFFSETS[k * 3 + 2] = i / side % side - RADIUS_SECTIONS;
+        }
+    }
+
+    private DepthOccluders() {}
+
+    /** @return 实际绘制的立方体数 */
+    public static int rasterize(DepthBuffer buf, double camX, double camY, double camZ, int maxBoxes) {
+        int csx = SectionPos.blockToSectionCoord(camX);
+        int csy = SectionPos.blockToSectionCoord(camY);
+        int csz = SectionPos.blockToSectionCoord(camZ);
+
+        int boxes = 0;
+        for (int k = 0; k < OFFSETS.length && boxes < maxBoxes; k += 3) {
+            int dx = OFFSETS[k], dy = OFFSETS[k + 1], dz = OFFSETS[k + 2];
+            int sx = csx + dx, sy = csy + dy, sz = csz + dz;
+
+            long[] bits = OccluderCache.snapshot(SectionPos.asLong(sx, sy, sz));
+            if (bits == null || bits[OccluderCache.MACRO_ANY] == 0) continue;
+
+            int bx = sx << 4, by = sy << 4, bz = sz << 4;
+            if (OccluderCache.isFull(bits)) {
+                buf.drawBox(bx, by, bz, bx + 16, by + 16, bz + 16, sectionFaces(sx, sy, sz));
+                boxes++;
+                continue;
+            }
+
+            boolean near = Math.abs(dx) <= 1 && Math.abs(dy) <= 1 && Math.abs(dz) <= 1;
+            long all     = bits[OccluderCache.MACRO_ALL];
+            long partial = bits[OccluderCache.MACRO_ANY] & ~all;
+
+            for (long m = all; m != 0; m &= m - 1) {
+                int i  = Long.numberOfTrailingZeros(m);
+                int lx = (i & 3) << 2, ly = (i >> 4) << 2, lz = ((i >> 2) & 3) << 2;
+                int faces = neighbourFaces(all, i, lx >> 2, ly >> 2, lz >> 2, 3, 1, 16, 4);
+                if (faces == 0) continue;
+                buf.drawBox(bx + lx, by + ly, bz + lz, bx + lx + 4, by + ly + 4, bz + lz + 4, faces);
+                boxes++;
+            }
+
+            if (!near) continue;
+            for (long m = partial; m != 0 && boxes < maxBoxes; m &= m - 1) {
+                int i  = Long.numberOfTrailingZeros(m);
+                int mx = (i & 3) << 2, my = (i >> 4) << 2, mz = ((i >> 2) & 3) << 2;
+                for (int y = my; y < my + 4; y++) {
+                    for (int z = mz; z < mz + 4; z++) {
+                        for (int x = mx; x < mx + 4; x++) {
+                            int idx = (y << 8) | (z << 4) | x;
+                            if (!solid(bits, idx)) continue;
+                            int faces = voxelFaces(bits, idx, x, y, z);
+                            if (faces == 0) continue;
+                            buf.drawBox(bx + x, by + y, bz + z, bx + x + 1, by + y + 1, bz + z + 1, faces);
+                            boxes++;
+                        }
+                    }
+                }
+            }
+        }
+        return boxes;
+    }
+
+    /** 全实心 section：相邻 section 同样全实心的面不画 */
+    private static int sectionFaces(int sx, int sy, int sz) {
+        int faces = 0;
+        if (!full(sx - 1, sy, sz)) faces |= 1;
+        if (!full(sx + 1, sy, sz)) faces |= 2;
+        if (!full(sx, sy - 1, sz)) faces |= 4;
+        if (!full(sx, sy + 1, sz)) faces |= 8;
+        if (!full(sx, sy, sz - 1)) faces |= 16;
+        if (!full(sx, sy, sz + 1)) faces |= 32;
+        return faces;
+    }
+
+    private static boolean full(int sx, int sy, int sz) {
+        return OccluderCache.isFull(OccluderCache.snapshot(SectionPos.asLong(sx, sy, sz)));
+    }
+
+    /**
+     * 网格内相邻格子已填满的面不画（只看同一 section 内，跨 section 一律画）。
+     * @param max 每轴最大坐标；sx/sy/sz 为各轴相邻格的下标步长
+     */
+    private static int neighbourFaces(long filled, int i, int x, int y, int z, int max, int sx, int sy, int sz) {
+        int faces = 0;
+        if (x == 0   || (filled & (1L << (i - sx))) == 0) faces |= 1;
+        if (x == max || (filled & (1L << (i + sx))) == 0) faces |= 2;
+        if (y == 0   || (filled & (1L << (i - sy))) == 0) faces |= 4;
+        if (y == max || (filled & (1L << (i + sy))) == 0) faces |= 8;
+        if (z == 0   || (filled & (1L << (i - sz))) == 0) faces |= 16;
+        if (z == max || (filled & (1L << (i + sz))) == 0) faces |= 32;
+        return faces;
+    }
+
+    private static int voxelFaces(long[] bits, int idx, int x, int y, int z) {
+        int faces = 0;
+        if (x == 0  || !solid(bits, idx - 1))   faces |= 1;
+        if (x == 15 || !solid(bits, idx + 1))   faces |= 2;
+        if (y == 0  || !solid(bits, idx - 256)) faces |= 4;
+        if (y == 15 || !solid(bits, idx + 256)) faces |= 8;
+        if (z == 0  || !solid(bits, idx - 16))  faces |= 16;
+        if (z == 15 || !solid(bits, idx + 16))  faces |= 32;
+        return faces;
+    }
+
+    private static boolean solid(long[] bits, int idx) {
+        return (bits[idx >>> 6] & (1L << idx)) != 0;
+    }
+}
@@ -0,0 +1,299 @@
+package com.wzz.better_entity_render.occlusion;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * EntityOcclusionCuller 两个 native 方法的纯 Java 实现。
+ *
+ * 输出布局和可见性语义与 better_entity_render.dll 完全一致：
+ *   - 9 条射线：相机 → AABB 中心 + 8 个角（向内收缩 {@link #TARGET_INSET}，避开方块边界）
+ *   - 起点体素（相机所在格）与终点体素（目标点所在格）不参与遮挡判断
+ *   - 任一射线长度超过 maxRayLength 直接视为可见
+ *
+ * native 库无法加载时（Linux / macOS 客户端）自动使用本实现，也便于无头环境测试。
+ * 线程安全：临时缓冲区按线程隔离。
+ */
+public final class JavaRaycaster {
+
+    public static final int RAY_COUNT = 9;
+    public static final int ALL_RAYS  = (1 << RAY_COUNT) - 1;
+
+    /** 遮挡体素未知 / 非完整不透明方块（不可能出现的打包坐标） */
+    public static final long NO_BLOCKER = Long.MIN_VALUE;
+
+    private static final double TARGET_INSET = 1.0E-4;
+    private static final double VOXEL_INSET  = 1.0E-6;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private JavaRaycaster() {}
+
+    /**
+     * 与 {@code EntityOcclusionCuller.computeRayPositions} 相同：
+     * 返回 [anyRayOpen(0/1), count, x0,y0,z0, x1,y1,z1, ...]，位置已去重。
+     */
+    public static int[] computeRayPositions(
+            double camX, double camY, double camZ,
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            double maxRayLength) {
+
+        Scratch s = SCRATCH.get();
+        s.setTargets(minX, minY, minZ, maxX, maxY, maxZ);
+        if (s.anyRayTooLong(camX, camY, camZ, maxRayLength)) {
+            return new int[] {1, 0};
+        }
+
+        Long2IntOpenHashMap index     = s.index;
+        IntArrayList        positions = s.positions;
+        index.clear();
+        positions.clear();
+
+        VoxelRay ray = s.ray;
+        for (int r = 0; r < RAY_COUNT; r++) {
+            ray.init(camX, camY, camZ, s.tx[r], s.ty[r], s.tz[r]);
+            while (ray.advance()) {
+                long key = pack(ray.x, ray.y, ray.z);
+                if (index.putIfAbsent(key, positions.size() / 3) == -1) {
+                    positions.add(ray.x);
+                    positions.add(ray.y);
+                    positions.add(ray.z);
+                }
+            }
+        }
+
+        int   count = positions.size() / 3;
+        int[] out   = new int[2 + count * 3];
+        out[0] = 0;
+        out[1] = count;
+        positions.getElements(0, out, 2, count * 3);
+        return out;
+    }
+
+    /**
+     * 与 {@code EntityOcclusionCuller.evaluateVisibility} 相同：
+     * solid[i] 对应 positions 中第 i 个方块，任一射线全程无实心方块即可见。
+     */
+    public static boolean evaluateVisibility(
+            double camX, double camY, double camZ,
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            double maxRayLength,
+            int[]     positions,
+            boolean[] solid,
+            boolean   anyRayOpen) {
+
+        if (anyRayOpen) return true;
+
+        Scratch s = SCRATCH.get();
+        s.setTargets(minX, minY, minZ, maxX, maxY, maxZ);
+        if (s.anyRayTooLong(camX, camY, camZ, maxRayLength)) return true;
+
+        Long2IntOpenHashMap index = s.index;
+        index.clear();
+        int count = Math.min(positions.length / 3, solid.length);
+        for (int i = 0; i < count; i++) {
+            index.put(pack(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]), i);
+        }
+
+        VoxelRay ray = s.ray;
+        for (int r = 0; r < RAY_COUNT; r++) {
+            ray.init(camX, camY, camZ, s.tx[r], s.ty[r], s.tz[r]);
+            boolean blocked = false;
+            while (ray.advance()) {
+                int i = index.get(pack(ray.x, ray.y, ray.z));
+                if (i >= 0 && solid[i]) {
+                    blocked = true;
+                    break;
+                }
+            }
+            if (!blocked) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 单遍检测：逐条射线遍历并直接查询 lookup，遇到遮挡立即换下一条，
+     * 任一射线通畅立即返回。不生成中间位置数组，供 worker 线程配合快照使用。
+     * lookup 报告的空 section / 空宏单元整块跳过，开阔地带每条射线只需少量查询。
+     * 部分遮挡方块（台阶、楼梯等）按面判断：射线穿入或穿出的面被完整遮挡即被挡住。
+     */
+    public static boolean isVisible(
+            double camX, double camY, double camZ,
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            double maxRayLength,
+            OccluderLookup lookup) {
+
+        return isVisible(camX, camY, camZ, minX, minY, minZ, maxX, maxY, maxZ, maxRayLength, lookup, null);
+    }
+
+    /**
+     * 同 {@link #isVisible}；结果为遮挡时 blockers[0..9) 写入每条射线的遮挡体素（{@link #pack} 格式），
+     * 由部分遮挡方块挡住的射线写 {@link #NO_BLOCKER}。供下次刷新时 {@link #stillBlocked} 快速确认。
+     */
+    public static boolean isVisible(
+            double camX, double camY, double camZ,
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            double maxRayLength,
+            OccluderLookup lookup,
+            long[] blockers) {
+
+        Scratch s = SCRATCH.get();
+        s.setTargets(minX, minY, minZ, maxX, maxY, maxZ);
+        if (s.anyRayTooLong(camX, camY, camZ, maxRayLength)) return true;
+
+        for (int r = 0; r < RAY_COUNT; r++) {
+            if (rayOpen(s, r, camX, camY, camZ, lookup)) return true;
+            if (blockers != null) blockers[r] = s.blocker;
+        }
+        return false;
+    }
+
+    /**
+     * 上次遮挡记录的快速复核：每条射线记录的遮挡体素仍是完整不透明方块，
+     * 且当前相机 → 目标点的线段仍穿过该体素内部（不是起点 / 终点体素）时，该射线必然仍被挡住。
+     * 9 条全部成立即可直接确认遮挡，无需重新遍历；任一不成立返回 false，由完整检测决定。
+     */
+    public static boolean stillBlocked(
+            double camX, double camY, double camZ,
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            double maxRayLength,
+            OccluderLookup lookup,
+            long[] blockers, int offset) {
+
+        Scratch s = SCRATCH.get();
+        s.setTargets(minX, minY, minZ, maxX, maxY, maxZ);
+        if (s.anyRayTooLong(camX, camY, camZ, maxRayLength)) return false;
+
+        int cx = VoxelRay.floor(camX), cy = VoxelRay.floor(camY), cz = VoxelRay.floor(camZ);
+        for (int r = 0; r < RAY_COUNT; r++) {
+            long b = blockers[offset + r];
+            if (b == NO_BLOCKER) return false;
+            int x = unpackX(b), y = unpackY(b), z = unpackZ(b);
+
+            if (x == cx && y == cy && z == cz) return false;
+            if (x == VoxelRay.floor(s.tx[r]) && y == VoxelRay.floor(s.ty[r]) && z == VoxelRay.floor(s.tz[r])) return false;
+            if (lookup.faceMask(x, y, z) != OccluderTable.OPAQUE) return false;
+            if (!segmentCrossesVoxel(s, camX, camY, camZ, s.tx[r], s.ty[r], s.tz[r], x, y, z)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 与 {@link #isVisible} 相同的 9 条射线，但全部遍历，返回通畅射线的位掩码（bit r = 第 r 条）。
+     * 用于实体簇：{@link #ALL_RAYS} 表示整簇可见，其余（含 0）需要逐个检测成员。
+     */
+    public static int openRayMask(
+            double camX, double camY, double camZ,
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            double maxRayLength,
+            OccluderLookup lookup) {
+
+        Scratch s = SCRATCH.get();
+        s.setTargets(minX, minY, minZ, maxX, maxY, maxZ);
+        if (s.anyRayTooLong(camX, camY, camZ, maxRayLength)) return ALL_RAYS;
+
+        int mask = 0;
+        for (int r = 0; r < RAY_COUNT; r++) {
+            if (rayOpen(s, r, camX, camY, camZ, lookup)) mask |= 1 << r;
+        }
+        return mask;
+    }
+
+    /** 射线被挡住时 s.blocker 为负责的完整不透明体素，否则为 {@link #NO_BLOCKER} */
+    private static boolean rayOpen(Scratch s, int r, double camX, double camY, double camZ, OccluderLookup lookup) {
+        VoxelRay ray = s.ray;
+        ray.init(camX, camY, camZ, s.tx[r], s.ty[r], s.tz[r]);
+        int  prevMask = 0; // 起点体素不参与
+        long prevPos  = NO_BLOCKER;
+        while (ray.advance()) {
+            int mask = lookup.faceMask(ray.x, ray.y, ray.z);
+            if ((mask & ray.face) != 0) {
+                s.blocker = mask == OccluderTable.OPAQUE ? pack(ray.x, ray.y, ray.z) : NO_BLOCKER;
+                return false;
+            }
+            if ((prevMask & VoxelRay.opposite(ray.face)) != 0) {
+                s.blocker = prevMask == OccluderTable.OPAQUE ? prevPos : NO_BLOCKER;
+                return false;
+            }
+            prevMask = mask;
+            prevPos  = pack(ray.x, ray.y, ray.z);
+            int shift = lookup.emptyCellShift(ray.x, ray.y, ray.z);
+            if (shift > 0 && !ray.skipCell(shift)) return true;
+        }
+        return true;
+    }
+
+    /** 与 BlockPos.asLong 相同的位布局（X/Z 各 26 位，Y 12 位） */
+    static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) z & 0x3FFFFFFL) << 12 | ((long) y & 0xFFFL);
+    }
+
+    static int unpackX(long p) { return (int) (p >> 38); }
+    static int unpackY(long p) { return (int) (p << 52 >> 52); }
+    static int unpackZ(long p) { return (int) (p << 26 >> 38); }
+
+    /** 线段是否穿过体素内部（slab 法，边界各内缩一点，只擦过棱角不算） */
+    private static boolean segmentCrossesVoxel(Scratch s, double ox, double oy, double oz,
+                                               double tx, double ty, double tz,
+                                               int x, int y, int z) {
+        s.t0 = 0.0;
+        s.t1 = 1.0;
+        return clip(s, ox, tx - ox, x) && clip(s, oy, ty - oy, y) && clip(s, oz, tz - oz, z);
+    }
+
+    private static boolean clip(Scratch s, double o, double d, int cell) {
+        double lo = cell + VOXEL_INSET, hi = cell + 1 - VOXEL_INSET;
+        if (d == 0.0) return o >= lo && o <= hi;
+        double ta = (lo - o) / d, tb = (hi - o) / d;
+        s.t0 = Math.max(s.t0, Math.min(ta, tb));
+        s.t1 = Math.min(s.t1, Math.max(ta, tb));
+        return s.t0 <= s.t1;
+    }
+
+    private static final class Scratch {
+        final double[] tx = new double[RAY_COUNT];
+        final double[] ty = new double[RAY_COUNT];
+        final double[] tz = new double[RAY_COUNT];
+
+        final VoxelRay            ray       = new VoxelRay();
+        long                      blocker   = NO_BLOCKER;
+        double                    t0, t1;
+        final Long2IntOpenHashMap index     = new Long2IntOpenHashMap();
+        final IntArrayList        positions = new IntArrayList();
+
+        Scratch() {
+            index.defaultReturnValue(-1);
+        }
+
+        void setTargets(double minX, double minY, double minZ,
+                        double maxX, double maxY, double maxZ) {
+            double x0 = Math.min(minX + TARGET_INSET, maxX), x1 = Math.max(maxX - TARGET_INSET, minX);
+            double y0 = Math.min(minY + TARGET_INSET, maxY), y1 = Math.max(maxY - TARGET_INSET, minY);
+            double z0 = Math.min(minZ + TARGET_INSET, maxZ), z1 = Math.max(maxZ - TARGET_INSET, minZ);
+
+            tx[0] = (minX + maxX) * 0.5;
+            ty[0] = (minY + maxY) * 0.5;
+            tz[0] = (minZ + maxZ) * 0.5;
+            for (int c = 0; c < 8; c++) {
+                tx[c + 1] = (c & 1) == 0 ? x0 : x1;
+                ty[c + 1] = (c & 2) == 0 ? y0 : y1;
+                tz[c + 1] = (c & 4) == 0 ? z0 : z1;
+            }
+        }
+
+        boolean anyRayTooLong(double camX, double camY, double camZ, double maxRayLength) {
+            double maxSq = maxRayLength * maxRayLength;
+            for (int r = 0; r < RAY_COUNT; r++) {
+                double dx = tx[r] - camX, dy = ty[r] - camY, dz = tz[r] - camZ;
+                if (dx * dx + dy * dy + dz * dz > maxSq) return true;
+            }
+            return false;
+        }
+    }
+}
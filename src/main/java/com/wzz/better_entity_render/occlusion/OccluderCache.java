@@ -0,0 +1,410 @@
+package com.wzz.better_entity_render.occlusion;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import java.util.Arrays;
+
+/**
+ * 按 chunk section 发布的遮挡只读快照，方块分类见 {@link OccluderTable}。
+ *
+ * 快照布局：
+ *   [0, 64)    完整不透明方块，每个方块 1 bit，共 4096 bit
+ *   [64]       4x4x4 宏单元"含遮挡方块（含部分遮挡）"掩码（64 个宏单元各 1 bit）
+ *   [65]       4x4x4 宏单元"全部为完整不透明方块"掩码
+ * 仅当 section 含部分遮挡方块（台阶、楼梯等）时追加：
+ *   [66, 130)  部分遮挡方块位图
+ *   [130, 194) 每个 long 之前的部分遮挡方块数（用于求秩）
+ *   [194, ...) 按秩排列的面掩码，每个 long 存 8 个字节
+ * 全空 / 全实心的 section 共用 {@link #EMPTY} / {@link #FULL}，射线可整块跳过空区域。
+ *
+ * 主线程负责读取 block state 构建快照，构建完成后整体放进 {@link #PUBLISHED}，
+ * 发布后的数组不再修改，整次可见性检测都在 worker 上完成。
+ * PUBLISHED 按 key 分成若干条带，每条带是一张 long 键的表、由自身的锁保护（查询不装箱，锁竞争分散）；
+ * worker 的 {@link Lookup} 连续查询同一 section 时不再进表。
+ *
+ *   - worker 查询到未发布的 section：记入 {@link #REQUESTED}，本次按不遮挡处理
+ *   - 主线程每帧 {@link #refresh}：按预算构建被请求 / 被标脏的 section，并淘汰远离相机的快照
+ *   - 方块或 section 更新（LevelRenderer.setSectionDirty）：标脏等待重建，重建发布前 worker 继续读旧快照
+ *     （不会因为附近的火把、红石、农田更新把身后的实体短暂判为可见）；新快照与旧快照不同时才记为变化
+ */
+public final class OccluderCache {
+
+    // 每帧最多构建的 section 数（每个约 4096 次 getBlockState + 查表）
+    private static final int  MAX_BUILDS_PER_FRAME = 16;
+    // 距相机超过该 section 数的快照会被淘汰（≥ MAX_RAY_LENGTH / 16 + 余量）
+    private static final int  KEEP_RADIUS_SECTIONS = 10;
+    private static final int  EVICT_INTERVAL       = 64;
+
+    static final int MACRO_ANY = 64;
+    static final int MACRO_ALL = 65;
+    private static final int SNAPSHOT_LENGTH = 66;
+
+    private static final int PARTIAL_BITS = 66;
+    private static final int PARTIAL_RANK = 130;
+    private static final int PARTIAL_MASK = 194;
+
+    // 仅主线程：构建时暂存每个方块的面掩码
+    private static final byte[] FACES = new byte[4096];
+
+    // 全空 / 全实心 section 共用同一个快照
+    private static final long[] EMPTY = new long[SNAPSHOT_LENGTH];
+    private static final long[] FULL  = new long[SNAPSHOT_LENGTH];
+
+    static {
+        Arrays.fill(FULL, -1L);
+    }
+
+    private static final int STRIPES = 16;
+
+    @SuppressWarnings("unchecked")
+    private static final Long2ObjectOpenHashMap<long[]>[] PUBLISHED = new Long2ObjectOpenHashMap[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) PUBLISHED[i] = new Long2ObjectOpenHashMap<>();
+    }
+
+    // worker 未命中的 section，等待主线程构建（以自身为锁）
+    private static final LongLinkedOpenHashSet REQUESTED = new LongLinkedOpenHashSet();
+
+    // ---- 仅主线程 ----
+    private static final LongLinkedOpenHashSet DIRTY = new LongLinkedOpenHashSet();
+    private static int frameCounter;
+
+    private static volatile Level snapshotLevel;
+
+    // 最近一次已发布快照被不同内容替换的时间（System.currentTimeMillis）
+    private static volatile long lastChangeMs;
+
+    // ---- 最近内容变化的 section（环形缓冲，仅主线程），按位置判断检测对象是否受方块变化影响 ----
+    private static final int    RECENT_CAPACITY = 256;
+    private static final long[] RECENT_KEYS     = new long[RECENT_CAPACITY];
+    private static final long[] RECENT_MS       = new long[RECENT_CAPACITY];
+    private static int    recentHead;
+    private static int    recentCount;
+    private static double clipT0, clipT1;
+
+    private OccluderCache() {}
+
+    /** 主线程每帧调用：构建待建快照，定期淘汰远处快照。 */
+    public static void refresh(Level level, double camX, double camY, double camZ) {
+        if (level != snapshotLevel) {
+            clear();
+            snapshotLevel = level;
+        }
+
+        int builds = 0;
+        while (builds < MAX_BUILDS_PER_FRAME) {
+            long key;
+            // 每次只在锁内取一个 key，构建期间不阻塞 worker 登记请求
+            synchronized (REQUESTED) {
+                if (REQUESTED.isEmpty()) break;
+                key = REQUESTED.removeFirstLong();
+            }
+            DIRTY.remove(key);
+            if (publish(level, key)) builds++;
+        }
+        while (builds < MAX_BUILDS_PER_FRAME && !DIRTY.isEmpty()) {
+            if (publish(level, DIRTY.removeFirstLong())) builds++;
+        }
+
+        if (++frameCounter % EVICT_INTERVAL == 0) {
+            evictFar(camX, camY, camZ);
+        }
+    }
+
+    /** 已发布的 section 标脏，旧快照保留到重建完成 */
+    public static void invalidate(int sectionX, int sectionY, int sectionZ) {
+        long key = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        if (get(key) != null) DIRTY.add(key);
+    }
+
+    /** 已发布的快照被不同内容替换：记入最近变化 */
+    private static void changed(long key) {
+        long now = System.currentTimeMillis();
+        lastChangeMs = now;
+        RECENT_KEYS[recentHead] = key;
+        RECENT_MS[recentHead]   = now;
+        recentHead = (recentHead + 1) & (RECENT_CAPACITY - 1);
+        if (recentCount < RECENT_CAPACITY) recentCount++;
+    }
+
+    /**
+     * 主线程：since 之后内容变化的 section 是否可能影响从相机到检测盒的射线。
+     * section 按检测盒的半边长外扩一格后与相机→盒中心的线段相交即算（覆盖 9 条射线和盒子附近），
+     * 远处的红石、作物、光照更新不会让无关的实体回到最短刷新间隔。
+     * 环形缓冲装不下 since 之后的全部变化时保守返回 true。
+     */
+    public static boolean changedNear(long since, double camX, double camY, double camZ,
+                                      double minX, double minY, double minZ,
+                                      double maxX, double maxY, double maxZ) {
+        if (lastChangeMs <= since) return false;
+
+        double cx = (minX + maxX) * 0.5, cy = (minY + maxY) * 0.5, cz = (minZ + maxZ) * 0.5;
+        double margin = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) * 0.5 + 1.0;
+        for (int n = 0; n < recentCount; n++) {
+            int i = (recentHead - 1 - n) & (RECENT_CAPACITY - 1);
+            if (RECENT_MS[i] <= since) return false;
+            long key = RECENT_KEYS[i];
+            double x0 = (SectionPos.x(key) << 4) - margin, x1 = x0 + 16 + 2 * margin;
+            double y0 = (SectionPos.y(key) << 4) - margin, y1 = y0 + 16 + 2 * margin;
+            double z0 = (SectionPos.z(key) << 4) - margin, z1 = z0 + 16 + 2 * margin;
+            if (segmentHitsBox(camX, camY, camZ, cx, cy, cz, x0, y0, z0, x1, y1, z1)) return true;
+        }
+        return recentCount == RECENT_CAPACITY;
+    }
+
+    /** 线段 a→b 与盒子是否相交（slab 法） */
+    private static boolean segmentHitsBox(double ax, double ay, double az, double bx, double by, double bz,
+                                          double x0, double y0, double z0, double x1, double y1, double z1) {
+        clipT0 = 0.0;
+        clipT1 = 1.0;
+        return clip(ax, bx - ax, x0, x1) && clip(ay, by - ay, y0, y1) && clip(az, bz - az, z0, z1);
+    }
+
+    private static boolean clip(double o, double d, double lo, double hi) {
+        if (d == 0.0) return o >= lo && o <= hi;
+        double ta = (lo - o) / d, tb = (hi - o) / d;
+        clipT0 = Math.max(clipT0, Math.min(ta, tb));
+        clipT1 = Math.min(clipT1, Math.max(ta, tb));
+        return clipT0 <= clipT1;
+    }
+
+    public static void invalidateColumn(Level level, int chunkX, int chunkZ) {
+        if (level != snapshotLevel) return;
+        for (int sy = level.getMinSection(); sy < level.getMaxSection(); sy++) {
+            long key = SectionPos.asLong(chunkX, sy, chunkZ);
+            remove(key);
+            DIRTY.remove(key);
+        }
+    }
+
+    public static void clear() {
+        for (Long2ObjectOpenHashMap<long[]> stripe : PUBLISHED) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        synchronized (REQUESTED) {
+            REQUESTED.clear();
+        }
+        DIRTY.clear();
+        recentCount = 0;
+        snapshotLevel = null;
+    }
+
+    /** 主线程读取已发布快照；未发布时登记构建请求并返回 null */
+    static long[] snapshot(long key) {
+        long[] bits = get(key);
+        if (bits == null) request(key);
+        return bits;
+    }
+
+    static boolean isFull(long[] bits) {
+        return bits == FULL;
+    }
+
+    /** section 内索引：y 最高位，x 最低位 */
+    static int index(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /** section 内 4x4x4 宏单元索引，布局同 {@link #index} */
+    static int macroIndex(int x, int y, int z) {
+        return ((y & 12) << 2) | (z & 12) | ((x & 12) >> 2);
+    }
+
+    private static boolean publish(Level level, long key) {
+        long[] bits = build(level, SectionPos.x(key), SectionPos.y(key), SectionPos.z(key));
+        if (bits == null) return false;
+        Long2ObjectOpenHashMap<long[]> stripe = stripe(key);
+        long[] old;
+        synchronized (stripe) {
+            old = stripe.put(key, bits);
+        }
+        // 只有光照变化等不影响遮挡的更新时内容相同，不算变化
+        if (old != null && old != bits && !Arrays.equals(old, bits)) changed(key);
+        return true;
+    }
+
+    private static Long2ObjectOpenHashMap<long[]> stripe(long key) {
+        return PUBLISHED[(int) HashCommon.mix(key) & (STRIPES - 1)];
+    }
+
+    private static long[] get(long key) {
+        Long2ObjectOpenHashMap<long[]> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    private static long[] remove(long key) {
+        Long2ObjectOpenHashMap<long[]> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    private static void request(long key) {
+        synchronized (REQUESTED) {
+            REQUESTED.add(key);
+        }
+    }
+
+    private static void evictFar(double camX, double camY, double camZ) {
+        int cx = SectionPos.blockToSectionCoord(camX);
+        int cy = SectionPos.blockToSectionCoord(camY);
+        int cz = SectionPos.blockToSectionCoord(camZ);
+        for (Long2ObjectOpenHashMap<long[]> stripe : PUBLISHED) {
+            synchronized (stripe) {
+                LongIterator keys = stripe.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (far(keys.nextLong(), cx, cy, cz)) keys.remove();
+                }
+            }
+        }
+        LongIterator it = DIRTY.iterator();
+        while (it.hasNext()) {
+            if (far(it.nextLong(), cx, cy, cz)) it.remove();
+        }
+    }
+
+    private static boolean far(long key, int cx, int cy, int cz) {
+        return Math.abs(SectionPos.x(key) - cx) > KEEP_RADIUS_SECTIONS
+                || Math.abs(SectionPos.y(key) - cy) > KEEP_RADIUS_SECTIONS
+                || Math.abs(SectionPos.z(key) - cz) > KEEP_RADIUS_SECTIONS;
+    }
+
+    /** @return null 表示区块未加载，不发布 */
+    private static long[] build(Level level, int sx, int sy, int sz) {
+        if (sy < level.getMinSection() || sy >= level.getMaxSection()) return EMPTY;
+
+        LevelChunk chunk = level.getChunkSource().getChunk(sx, sz, false);
+        if (chunk == null) return null;
+
+        LevelChunkSection section = chunk.getSection(level.getSectionIndexFromSectionY(sy));
+        if (section.hasOnlyAir()) return EMPTY;
+
+        int[] macroCount = new int[64];
+        int   macroAny   = 0;
+        long  macroMask  = 0;
+        int   partials   = 0;
+        for (int ly = 0; ly < 16; ly++) {
+            for (int lz = 0; lz < 16; lz++) {
+                for (int lx = 0; lx < 16; lx++) {
+                    int idx   = (ly << 8) | (lz << 4) | lx;
+                    int faces = OccluderTable.faces(section.getBlockState(lx, ly, lz));
+                    FACES[idx] = (byte) faces;
+                    if (faces == 0) continue;
+                    int m = macroIndex(lx, ly, lz);
+                    macroMask |= 1L << m;
+                    if (faces == OccluderTable.OPAQUE) macroCount[m]++;
+                    else partials++;
+                }
+            }
+        }
+        if (macroMask == 0) return EMPTY;
+
+        long all = 0;
+        for (int m = 0; m < 64; m++) {
+            if (macroCount[m] == 64) all |= 1L << m;
+        }
+        if (all == -1L) return FULL;
+
+        long[] bits = new long[partials == 0 ? SNAPSHOT_LENGTH : PARTIAL_MASK + (partials + 7) / 8];
+        bits[MACRO_ANY] = macroMask;
+        bits[MACRO_ALL] = all;
+        int rank = 0;
+        for (int idx = 0; idx < 4096; idx++) {
+            int faces = FACES[idx];
+            if ((idx & 63) == 0 && partials > 0) bits[PARTIAL_RANK + (idx >>> 6)] = rank;
+            if (faces == OccluderTable.OPAQUE) {
+                bits[idx >>> 6] |= 1L << idx;
+            } else if (faces != 0) {
+                bits[PARTIAL_BITS + (idx >>> 6)] |= 1L << idx;
+                bits[PARTIAL_MASK + (rank >>> 3)] |= (long) faces << ((rank & 7) << 3);
+                rank++;
+            }
+        }
+        return bits;
+    }
+
+    /** 快照中该方块的面掩码 */
+    static int faces(long[] bits, int idx) {
+        long bit = 1L << idx;
+        if ((bits[idx >>> 6] & bit) != 0) return OccluderTable.OPAQUE;
+        if (bits.length == SNAPSHOT_LENGTH) return 0;
+
+        int  word    = idx >>> 6;
+        long partial = bits[PARTIAL_BITS + word];
+        if ((partial & bit) == 0) return 0;
+        int rank = (int) bits[PARTIAL_RANK + word] + Long.bitCount(partial & (bit - 1));
+        return (int) (bits[PARTIAL_MASK + (rank >>> 3)] >>> ((rank & 7) << 3)) & 0xFF;
+    }
+
+    /**
+     * worker 侧查询游标（每线程一个）。
+     * 连续查询大多落在同一 section，缓存上一次的 key 和位图避免重复查表。
+     */
+    public static final class Lookup implements OccluderLookup {
+        private boolean valid;
+        private long    lastKey = Long.MIN_VALUE;
+        private long[]  lastBits;
+        private boolean missed;
+
+        /** 开始一次新的检测；level 与快照不一致时所有查询均返回 false */
+        public void reset(Level level) {
+            valid    = level != null && level == snapshotLevel;
+            lastKey  = Long.MIN_VALUE;
+            lastBits = null;
+            missed   = false;
+        }
+
+        /** 本次检测是否遇到未发布的 section（结果偏向可见） */
+        public boolean missed() {
+            return missed;
+        }
+
+        @Override
+        public boolean isOpaque(int x, int y, int z) {
+            long[] bits = section(x, y, z);
+            if (bits == null) return false;
+            int idx = index(x, y, z);
+            return (bits[idx >>> 6] & (1L << idx)) != 0;
+        }
+
+        @Override
+        public int faceMask(int x, int y, int z) {
+            long[] bits = section(x, y, z);
+            return bits == null ? 0 : faces(bits, index(x, y, z));
+        }
+
+        /** 未发布的 section 按不遮挡处理，同样整块跳过 */
+        @Override
+        public int emptyCellShift(int x, int y, int z) {
+            long[] bits = section(x, y, z);
+            if (bits == null || bits[MACRO_ANY] == 0) return 4;
+            return (bits[MACRO_ANY] & (1L << macroIndex(x, y, z))) == 0 ? 2 : 0;
+        }
+
+        private long[] section(int x, int y, int z) {
+            if (!valid) return null;
+            long key = SectionPos.asLong(x >> 4, y >> 4, z >> 4);
+            if (key != lastKey) {
+                lastKey  = key;
+                lastBits = get(key);
+                if (lastBits == null) {
+                    missed = true;
+                    request(key);
+                }
+            }
+            return lastBits;
+        }
+    }
+}
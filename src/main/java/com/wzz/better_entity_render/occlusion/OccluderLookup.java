@@ -0,0 +1,26 @@
+package com.wzz.better_entity_render.occlusion;
+
+/** 体素遮挡查询，供射线遍历使用。 */
+@FunctionalInterface
+public interface OccluderLookup {
+
+    /** 该方块是否完整遮挡视线；未知时应返回 false（保守不遮挡）。 */
+    boolean isOpaque(int x, int y, int z);
+
+    /**
+     * 该方块完整遮挡视线的面（bit 0..5 = -X +X -Y +Y -Z +Z，见 {@link OccluderTable}）。
+     * 射线穿过被标记的面即被挡住；默认只区分完整不透明与不遮挡。
+     */
+    default int faceMask(int x, int y, int z) {
+        return isOpaque(x, y, z) ? OccluderTable.OPAQUE : 0;
+    }
+
+    /**
+     * 该方块所在的、已知不含任何遮挡方块的对齐立方体边长（log2）：
+     * 4 = 整个 section 为空，2 = 所在 4x4x4 宏单元为空，0 = 无法跳过。
+     * 射线可借此一次穿过整块空区域。
+     */
+    default int emptyCellShift(int x, int y, int z) {
+        return 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.wzz.better_entity_render.occlusion;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.slf4j.Logger;
+
+/**
+ * 按 block state 注册 ID 索引的遮挡分类表，每个 state 一个字节：完整遮挡视线的面（bit 0..5 = -X +X -Y +Y -Z +Z）。
+ *   - {@link #OPAQUE}（六面全满）：完整不透明方块（石头、泥土等）
+ *   - 0：透明或不遮挡（空气、玻璃、树叶、屏障、动态形状方块）
+ *   - 其他：部分遮挡（台阶、楼梯、雪层等），射线穿过被标记的面即被挡住
+ *
+ * 按渲染遮挡（canOcclude + 遮挡形状）而非碰撞形状分类：玻璃、屏障虽有完整碰撞箱但不挡视线。
+ * 注册表在模组加载完成后冻结，表在首次使用时构建一次；注册表大小变化时重建。
+ */
+public final class OccluderTable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    public static final int OPAQUE = 0x3F;
+
+    private static volatile byte[] table;
+
+    private OccluderTable() {}
+
+    /** @return 该 state 遮挡视线的面掩码 */
+    public static int faces(BlockState state) {
+        int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+        if (id < 0) return 0;
+        byte[] t = table;
+        if (t == null || id >= t.length) t = rebuild();
+        return id < t.length ? t[id] : 0;
+    }
+
+    /** Direction → 面掩码位 */
+    public static int bit(Direction dir) {
+        return switch (dir) {
+            case WEST  -> 1;
+            case EAST  -> 2;
+            case DOWN  -> 4;
+            case UP    -> 8;
+            case NORTH -> 16;
+            case SOUTH -> 32;
+        };
+    }
+
+    private static synchronized byte[] rebuild() {
+        int size = Block.BLOCK_STATE_REGISTRY.size();
+        byte[] t = table;
+        if (t != null && t.length == size) return t;
+
+        t = new byte[size];
+        int opaque = 0, partial = 0;
+        for (int id = 0; id < size; id++) {
+            BlockState state = Block.BLOCK_STATE_REGISTRY.byId(id);
+            if (state == null) continue;
+            int faces = classify(state);
+            t[id] = (byte) faces;
+            if (faces == OPAQUE) opaque++;
+            else if (faces != 0) partial++;
+        }
+        table = t;
+        LOGGER.debug("Occluder table: {} states, {} opaque, {} partial", size, opaque, partial);
+        return t;
+    }
+
+    private static int classify(BlockState state) {
+        try {
+            if (state.isAir() || !state.canOcclude() || state.getBlock().hasDynamicShape()) return 0;
+            if (state.isSolidRender(EmptyBlockGetter.INSTANCE, BlockPos.ZERO)) return OPAQUE;
+
+            int faces = 0;
+            for (Direction dir : Direction.values()) {
+                if (Block.isFaceFull(state.getFaceOcclusionShape(EmptyBlockGetter.INSTANCE, BlockPos.ZERO, dir), dir)) {
+                    faces |= bit(dir);
+                }
+            }
+            return faces;
+        } catch (RuntimeException e) {
+            // 依赖真实世界数据的模组方块：保守视为不遮挡
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.wzz.better_entity_render.occlusion;
+
+import net.minecraft.world.level.Level;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 一帧内待检测对象（实体或方块实体）的批量记录，存放在一块 direct ByteBuffer（堆外）中。
+ *
+ * 主线程在 flushTasks 中按优先级写入记录（见 {@link OcclusionScheduler}），整批交给 worker 一次处理，
+ * 结果原地写回 result 字段，再由主线程按记录顺序应用，全程不为单个实体分配对象。
+ *
+ * 记录布局（本机字节序，每条 {@link #STRIDE} 字节）：
+ *   [0]  long   key（实体 ID 或 BlockPos.asLong）
+ *   [8]  int    result（0 = 遮挡，1 = 可见；处理前为 -1）
+ *   [12] int    group（0 = 单独检测；n > 0 = 簇头，其后紧跟 n 条成员记录；-1 = 成员）
+ *   [16] double minX, minY, minZ, maxX, maxY, maxZ
+ *   [64] long   blocker × 9（结果为遮挡时每条射线的遮挡体素，见 {@link JavaRaycaster#NO_BLOCKER}）
+ *   [136] int   wantBlockers（1 = 需要记录遮挡体素，由主线程在提交前标记）
+ * 相机位置和对象类别（tag）对整批相同，放在批次头字段中。
+ * 簇头的 AABB 为成员并集，key 无意义，结果由 worker 展开到成员记录。
+ */
+public final class OcclusionBatch {
+
+    public static final int STRIDE = 144;
+
+    private static final int OFF_KEY      = 0;
+    private static final int OFF_RESULT   = 8;
+    private static final int OFF_GROUP    = 12;
+    private static final int OFF_AABB     = 16;
+    private static final int OFF_BLOCKERS = 64;
+    private static final int OFF_WANT     = 136;
+
+    public static final int GROUP_MEMBER = -1;
+
+    private final ByteBuffer buffer;
+    private final int        capacity;
+    private int              size;
+
+    private Level  level;
+    private int    tag;
+    private double camX, camY, camZ;
+
+    public OcclusionBatch(int capacity) {
+        this.capacity = capacity;
+        this.buffer   = ByteBuffer.allocateDirect(capacity * STRIDE).order(ByteOrder.nativeOrder());
+    }
+
+    /** 开始新一批：清空记录，记下本批的世界、对象类别与相机位置 */
+    public void begin(Level level, int tag, double camX, double camY, double camZ) {
+        this.size  = 0;
+        this.level = level;
+        this.tag   = tag;
+        this.camX  = camX;
+        this.camY  = camY;
+        this.camZ  = camZ;
+    }
+
+    /** @return false 表示本批已满 */
+    public boolean add(long key,
+                       double minX, double minY, double minZ,
+                       double maxX, double maxY, double maxZ) {
+        return put(key, 0, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /** 写入簇头，调用方随后必须紧接着写入 members 条 {@link #addMember} */
+    public boolean addGroup(int members,
+                            double minX, double minY, double minZ,
+                            double maxX, double maxY, double maxZ) {
+        if (remaining() < members + 1) return false;
+        return put(0L, members, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public boolean addMember(long key,
+                             double minX, double minY, double minZ,
+                             double maxX, double maxY, double maxZ) {
+        return put(key, GROUP_MEMBER, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    private boolean put(long key, int group,
+                        double minX, double minY, double minZ,
+                        double maxX, double maxY, double maxZ) {
+        if (size >= capacity) return false;
+        int base = size * STRIDE;
+        buffer.putLong(base + OFF_KEY, key);
+        buffer.putInt(base + OFF_RESULT, -1);
+        buffer.putInt(base + OFF_GROUP, group);
+        buffer.putLong(base + OFF_BLOCKERS, JavaRaycaster.NO_BLOCKER);
+        buffer.putInt(base + OFF_WANT, 0);
+        buffer.putDouble(base + OFF_AABB,      minX);
+        buffer.putDouble(base + OFF_AABB + 8,  minY);
+        buffer.putDouble(base + OFF_AABB + 16, minZ);
+        buffer.putDouble(base + OFF_AABB + 24, maxX);
+        buffer.putDouble(base + OFF_AABB + 32, maxY);
+        buffer.putDouble(base + OFF_AABB + 40, maxZ);
+        size++;
+        return true;
+    }
+
+    public int size()          { return size; }
+    public boolean isFull()    { return size >= capacity; }
+    public int remaining()     { return capacity - size; }
+    public Level level()       { return level; }
+    public int tag()           { return tag; }
+    public double camX()       { return camX; }
+    public double camY()       { return camY; }
+    public double camZ()       { return camZ; }
+
+    public long key(int i)     { return buffer.getLong(i * STRIDE + OFF_KEY); }
+    public int group(int i)    { return buffer.getInt(i * STRIDE + OFF_GROUP); }
+    public double minX(int i)  { return buffer.getDouble(i * STRIDE + OFF_AABB); }
+    public double minY(int i)  { return buffer.getDouble(i * STRIDE + OFF_AABB + 8); }
+    public double minZ(int i)  { return buffer.getDouble(i * STRIDE + OFF_AABB + 16); }
+    public double maxX(int i)  { return buffer.getDouble(i * STRIDE + OFF_AABB + 24); }
+    public double maxY(int i)  { return buffer.getDouble(i * STRIDE + OFF_AABB + 32); }
+    public double maxZ(int i)  { return buffer.getDouble(i * STRIDE + OFF_AABB + 40); }
+
+    /** -1 = 未处理，0 = 遮挡，1 = 可见 */
+    public int result(int i)   { return buffer.getInt(i * STRIDE + OFF_RESULT); }
+
+    public void setResult(int i, boolean visible) {
+        buffer.putInt(i * STRIDE + OFF_RESULT, visible ? 1 : 0);
+    }
+
+    /** 该对象已被遮挡或正在确认遮挡：下次刷新可以用遮挡体素快速复核，检测时需要记录 */
+    public boolean wantsBlockers(int i) {
+        return buffer.getInt(i * STRIDE + OFF_WANT) != 0;
+    }
+
+    public void setWantsBlockers(int i) {
+        buffer.putInt(i * STRIDE + OFF_WANT, 1);
+    }
+
+    public long blocker(int i, int ray) {
+        return buffer.getLong(i * STRIDE + OFF_BLOCKERS + ray * 8);
+    }
+
+    public void setBlocker(int i, int ray, long pos) {
+        buffer.putLong(i * STRIDE + OFF_BLOCKERS + ray * 8, pos);
+    }
+}
@@ -0,0 +1,247 @@
+package com.wzz.better_entity_render.occlusion;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.world.phys.AABB;
+
+/**
+ * 遮挡检测请求的优先级调度（替代按到达顺序的 FIFO）。
+ *
+ * 每个实体最多一条待处理请求：重复请求只更新 AABB 和优先级输入（后到的覆盖先到的）。
+ * 每帧 {@link #drainInto} 按优先级从高到低取出批次容量内的请求，其余留到下一帧，
+ * 等待时间会继续抬高其优先级，不会饿死。
+ *
+ * 优先级 = (投影尺寸权重 + 距离权重) × (1 + 等待时间 / 刷新间隔) × (当前被遮挡 ? 2 : 1)
+ *   - 投影尺寸：AABB 最大边长 / 距离，近处的大实体优先
+ *   - 当前被遮挡：重新变为可见若被拖延会直接造成"突然出现"，提高优先级
+ *
+ * 开启聚簇时，同一 8x8x8 单元内待检测数达到 {@link #CLUSTER_MIN} 的请求合并成一个簇
+ * （见 {@link OcclusionBatch#addGroup}），先用并集 AABB 检测一次：全部通畅时成员全部可见，
+ * 否则逐个检测成员。
+ * 仅主线程访问。
+ */
+public final class OcclusionScheduler {
+
+    private static final int   INITIAL_CAPACITY = 256;
+    private static final float HIDDEN_BOOST     = 2.0F;
+
+    private static final int CLUSTER_CELL_SHIFT = 3;
+    private static final int CLUSTER_MIN        = 4;
+    private static final int CLUSTER_MAX        = 32;
+
+    private final boolean clustering;
+    // 按单元串起的请求链（优先级从高到低），drainInto 内临时使用
+    private final Long2IntOpenHashMap cellHead  = new Long2IntOpenHashMap();
+    private final Long2IntOpenHashMap cellCount = new Long2IntOpenHashMap();
+    private final int[] members = new int[CLUSTER_MAX];
+
+    private final Long2IntOpenHashMap index = new Long2IntOpenHashMap();
+
+    private long[]    keys;
+    private double[]  boxes;      // 每条 6 个：minX, minY, minZ, maxX, maxY, maxZ
+    private float[]   weight;     // 尺寸 + 距离权重，请求时计算
+    private long[]    lastCheckMs;
+    private boolean[] hidden;
+    private boolean[] taken;
+    private float[]   priority;
+    private int[]     order;
+    private int[]     next;
+    private int       count;
+
+    private final IntComparator byPriorityDesc = (a, b) -> Float.compare(priority[b], priority[a]);
+
+    public OcclusionScheduler(boolean clustering) {
+        this.clustering = clustering;
+        index.defaultReturnValue(-1);
+        cellHead.defaultReturnValue(-1);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** 提交或更新一条请求 */
+    public void request(long key, AABB aabb, double camX, double camY, double camZ,
+                        long lastCheckMs, boolean hidden) {
+        int i = index.get(key);
+        if (i < 0) {
+            if (count == keys.length) grow();
+            i = count++;
+            keys[i] = key;
+            index.put(key, i);
+        }
+
+        int b = i * 6;
+        boxes[b]     = aabb.minX; boxes[b + 1] = aabb.minY; boxes[b + 2] = aabb.minZ;
+        boxes[b + 3] = aabb.maxX; boxes[b + 4] = aabb.maxY; boxes[b + 5] = aabb.maxZ;
+
+        double dx = (aabb.minX + aabb.maxX) * 0.5 - camX;
+        double dy = (aabb.minY + aabb.maxY) * 0.5 - camY;
+        double dz = (aabb.minZ + aabb.maxZ) * 0.5 - camZ;
+        double dist   = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double extent = Math.max(aabb.getXsize(), Math.max(aabb.getYsize(), aabb.getZsize()));
+
+        this.weight[i]      = (float) (extent / Math.max(dist, 1.0) * 4.0 + 1.0 / (1.0 + dist * 0.05));
+        this.lastCheckMs[i] = lastCheckMs;
+        this.hidden[i]      = hidden;
+    }
+
+    public boolean contains(long key) {
+        return index.containsKey(key);
+    }
+
+    public void remove(long key) {
+        int i = index.remove(key);
+        if (i < 0) return;
+        int last = --count;
+        if (i != last) {
+            copy(last, i);
+            index.put(keys[i], i);
+        }
+    }
+
+    public void clear() {
+        index.clear();
+        count = 0;
+    }
+
+    /**
+     * 按优先级取出请求写入批次，直到批次写满或请求取完。
+     * @param intervalMs 基准刷新间隔，用于折算等待时间
+     * @return 写入的条数
+     */
+    public int drainInto(OcclusionBatch batch, long now, long intervalMs) {
+        if (count == 0) return 0;
+
+        for (int i = 0; i < count; i++) {
+            float wait = (float) Math.max(0L, now - lastCheckMs[i]) / intervalMs;
+            priority[i] = weight[i] * (1.0F + Math.min(wait, 16.0F)) * (hidden[i] ? HIDDEN_BOOST : 1.0F);
+            order[i]    = i;
+            taken[i]    = false;
+        }
+        IntArrays.quickSort(order, 0, count, byPriorityDesc);
+        if (clustering) linkCells();
+
+        int written = 0;
+        for (int k = 0; k < count && !batch.isFull(); k++) {
+            int i = order[k];
+            if (taken[i]) continue;
+            if (clustering && cellCount.get(cell(i)) >= CLUSTER_MIN) {
+                int n = addCluster(batch, i);
+                if (n > 0) {
+                    written += n;
+                    continue;
+                }
+            }
+            int b = i * 6;
+            batch.add(keys[i], boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+            taken[i] = true;
+            written++;
+        }
+
+        // 压紧剩余请求
+        int w = 0;
+        for (int i = 0; i < count; i++) {
+            if (taken[i]) {
+                index.remove(keys[i]);
+                continue;
+            }
+            if (w != i) {
+                copy(i, w);
+                index.put(keys[w], w);
+            }
+            w++;
+        }
+        count = w;
+        return written;
+    }
+
+    /** 按优先级顺序把同一单元的请求串成链 */
+    private void linkCells() {
+        cellHead.clear();
+        cellCount.clear();
+        for (int k = count - 1; k >= 0; k--) {
+            int  i = order[k];
+            long c = cell(i);
+            next[i] = cellHead.get(c);
+            cellHead.put(c, i);
+            cellCount.addTo(c, 1);
+        }
+    }
+
+    /**
+     * 从 first 开始沿单元链取未取出的请求组成一个簇写入批次。
+     * @return 写入的成员数；成员不足或批次放不下时返回 0，由调用方单独写入
+     */
+    private int addCluster(OcclusionBatch batch, int first) {
+        int limit = Math.min(CLUSTER_MAX, batch.remaining() - 1);
+        int n = 0;
+        for (int i = first; i >= 0 && n < limit; i = next[i]) {
+            if (!taken[i]) members[n++] = i;
+        }
+        if (n < CLUSTER_MIN) return 0;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int m = 0; m < n; m++) {
+            int b = members[m] * 6;
+            minX = Math.min(minX, boxes[b]);     minY = Math.min(minY, boxes[b + 1]); minZ = Math.min(minZ, boxes[b + 2]);
+            maxX = Math.max(maxX, boxes[b + 3]); maxY = Math.max(maxY, boxes[b + 4]); maxZ = Math.max(maxZ, boxes[b + 5]);
+        }
+
+        batch.addGroup(n, minX, minY, minZ, maxX, maxY, maxZ);
+        for (int m = 0; m < n; m++) {
+            int i = members[m];
+            int b = i * 6;
+            batch.addMember(keys[i], boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+            taken[i] = true;
+        }
+        return n;
+    }
+
+    private long cell(int i) {
+        int b = i * 6;
+        return JavaRaycaster.pack(
+                VoxelRay.floor((boxes[b]     + boxes[b + 3]) * 0.5) >> CLUSTER_CELL_SHIFT,
+                VoxelRay.floor((boxes[b + 1] + boxes[b + 4]) * 0.5) >> CLUSTER_CELL_SHIFT,
+                VoxelRay.floor((boxes[b + 2] + boxes[b + 5]) * 0.5) >> CLUSTER_CELL_SHIFT);
+    }
+
+    private void copy(int from, int to) {
+        keys[to] = keys[from];
+        System.arraycopy(boxes, from * 6, boxes, to * 6, 6);
+        weight[to]      = weight[from];
+        lastCheckMs[to] = lastCheckMs[from];
+        hidden[to]      = hidden[from];
+    }
+
+    private void allocate(int capacity) {
+        keys        = new long[capacity];
+        boxes       = new double[capacity * 6];
+        weight      = new float[capacity];
+        lastCheckMs = new long[capacity];
+        hidden      = new boolean[capacity];
+        taken       = new boolean[capacity];
+        priority    = new float[capacity];
+        order       = new int[capacity];
+        next        = new int[capacity];
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        long[]    oKeys = keys;
+        double[]  oBoxes = boxes;
+        float[]   oWeight = weight;
+        long[]    oCheck = lastCheckMs;
+        boolean[] oHidden = hidden;
+
+        allocate(capacity);
+        System.arraycopy(oKeys, 0, keys, 0, count);
+        System.arraycopy(oBoxes, 0, boxes, 0, count * 6);
+        System.arraycopy(oWeight, 0, weight, 0, count);
+        System.arraycopy(oCheck, 0, lastCheckMs, 0, count);
+        System.arraycopy(oHidden, 0, hidden, 0, count);
+    }
+}
@@ -0,0 +1,221 @@
+package com.wzz.better_entity_render.occlusion;
+
+import net.minecraft.world.level.Level;
+
+import java.util.Arrays;
+
+/**
+ * 遮挡状态表：原始类型键的开放寻址哈希（线性探测 + 回移删除，无墓碑），
+ * 各字段按列存放（struct-of-arrays），查询和更新都不装箱、不分配。
+ *
+ * 被遮挡的条目另存每条射线上次的遮挡体素（{@link JavaRaycaster#NO_BLOCKER} 表示无记录），
+ * 以及记录时的相机位置和目标中心，用于下次刷新的快速复核。
+ *
+ * 表绑定一个 Level：换世界时整体清空，避免实体 ID 在不同世界间复用导致旧的迟滞状态串到新实体上。
+ * 槽位下标只在下一次 insert / remove / sweep 之前有效。
+ * 仅主线程访问。
+ */
+public final class OcclusionStateStore {
+
+    public static final byte FLAG_VISIBLE = 1;
+    public static final byte FLAG_PENDING = 2;
+
+    private static final long  EMPTY_KEY        = Long.MIN_VALUE;
+    private static final int   INITIAL_CAPACITY = 256;
+    private static final int   RAYS             = JavaRaycaster.RAY_COUNT;
+
+    private long[]   keys;
+    private byte[]   flags;
+    private byte[]   hideConfirm;
+    private long[]   lastCheckMs;
+    private long[]   lastSeenMs;
+    private double[] anchorX, anchorY, anchorZ;
+    private long[]   blockers;   // 每条 RAY_COUNT 个
+    private double[] blockRef;   // 每条 6 个：相机 xyz、目标中心 xyz
+
+    private int   size;
+    private int   mask;
+    private Level level;
+
+    public OcclusionStateStore() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /** 绑定世界；与当前世界不同则清空 */
+    public void bindLevel(Level level) {
+        if (this.level != level) {
+            clear();
+            this.level = level;
+        }
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return 槽位下标，不存在返回 -1 */
+    public int find(long key) {
+        int slot = mix(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return slot;
+            if (k == EMPTY_KEY) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /** 插入新条目（调用方需确认 key 不存在），初始为可见 */
+    public int insert(long key, double ax, double ay, double az, long nowMs) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY_KEY) slot = (slot + 1) & mask;
+
+        keys[slot]        = key;
+        flags[slot]       = FLAG_VISIBLE;
+        hideConfirm[slot] = 0;
+        lastCheckMs[slot] = 0;
+        lastSeenMs[slot]  = nowMs;
+        anchorX[slot] = ax; anchorY[slot] = ay; anchorZ[slot] = az;
+        blockers[slot * RAYS] = JavaRaycaster.NO_BLOCKER;
+        size++;
+        return slot;
+    }
+
+    public void remove(long key) {
+        int slot = find(key);
+        if (slot >= 0) removeSlot(slot);
+    }
+
+    /** 淘汰 lastSeen 早于 cutoffMs 的条目（长时间未参与渲染） */
+    public void sweep(long cutoffMs) {
+        for (int slot = 0; slot < keys.length; ) {
+            if (keys[slot] != EMPTY_KEY && lastSeenMs[slot] < cutoffMs) {
+                // 回移后当前槽位可能换成了新条目，需要重新检查
+                removeSlot(slot);
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        size  = 0;
+        level = null;
+    }
+
+    // ---- 字段访问 ----
+
+    public boolean isVisible(int slot)        { return (flags[slot] & FLAG_VISIBLE) != 0; }
+    public boolean isPending(int slot)        { return (flags[slot] & FLAG_PENDING) != 0; }
+    public int     hideConfirm(int slot)      { return hideConfirm[slot]; }
+    public long    lastCheckMs(int slot)      { return lastCheckMs[slot]; }
+    public double  anchorX(int slot)          { return anchorX[slot]; }
+    public double  anchorY(int slot)          { return anchorY[slot]; }
+    public double  anchorZ(int slot)          { return anchorZ[slot]; }
+
+    public void setVisible(int slot, boolean v) { flags[slot] = (byte) (v ? flags[slot] | FLAG_VISIBLE : flags[slot] & ~FLAG_VISIBLE); }
+    public void setPending(int slot, boolean v) { flags[slot] = (byte) (v ? flags[slot] | FLAG_PENDING : flags[slot] & ~FLAG_PENDING); }
+    public void setHideConfirm(int slot, int v) { hideConfirm[slot] = (byte) v; }
+    public void setLastCheckMs(int slot, long v) { lastCheckMs[slot] = v; }
+    public void setLastSeenMs(int slot, long v)  { lastSeenMs[slot] = v; }
+
+    public void setAnchor(int slot, double x, double y, double z) {
+        anchorX[slot] = x; anchorY[slot] = y; anchorZ[slot] = z;
+    }
+
+    public boolean hasBlockers(int slot)   { return blockers[slot * RAYS] != JavaRaycaster.NO_BLOCKER; }
+    /** 遮挡体素列，该槽位从 slot * RAY_COUNT 开始 */
+    public long[]  blockers()              { return blockers; }
+    public double  blockRef(int slot, int k) { return blockRef[slot * 6 + k]; }
+
+    public void setBlocker(int slot, int ray, long pos) { blockers[slot * RAYS + ray] = pos; }
+    public void clearBlockers(int slot)                 { blockers[slot * RAYS] = JavaRaycaster.NO_BLOCKER; }
+
+    public void setBlockRef(int slot, double camX, double camY, double camZ, double cx, double cy, double cz) {
+        int b = slot * 6;
+        blockRef[b]     = camX; blockRef[b + 1] = camY; blockRef[b + 2] = camZ;
+        blockRef[b + 3] = cx;   blockRef[b + 4] = cy;   blockRef[b + 5] = cz;
+    }
+
+    // ---- 内部 ----
+
+    private void removeSlot(int slot) {
+        size--;
+        // 回移删除：把后续同簇条目前移，保持探测链连续
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY_KEY) {
+            int ideal = mix(keys[next]) & mask;
+            // ideal 不在 (hole, next] 循环区间内时，条目可以移到 hole
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY_KEY;
+    }
+
+    private void move(int from, int to) {
+        keys[to]        = keys[from];
+        flags[to]       = flags[from];
+        hideConfirm[to] = hideConfirm[from];
+        lastCheckMs[to] = lastCheckMs[from];
+        lastSeenMs[to]  = lastSeenMs[from];
+        anchorX[to] = anchorX[from]; anchorY[to] = anchorY[from]; anchorZ[to] = anchorZ[from];
+        System.arraycopy(blockers, from * RAYS, blockers, to * RAYS, RAYS);
+        System.arraycopy(blockRef, from * 6, blockRef, to * 6, 6);
+    }
+
+    private void allocate(int capacity) {
+        keys        = new long[capacity];
+        flags       = new byte[capacity];
+        hideConfirm = new byte[capacity];
+        lastCheckMs = new long[capacity];
+        lastSeenMs  = new long[capacity];
+        anchorX     = new double[capacity];
+        anchorY     = new double[capacity];
+        anchorZ     = new double[capacity];
+        blockers    = new long[capacity * RAYS];
+        blockRef    = new double[capacity * 6];
+        mask        = capacity - 1;
+        Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    private void rehash(int capacity) {
+        long[]   oKeys = keys;
+        byte[]   oFlags = flags, oHide = hideConfirm;
+        long[]   oCheck = lastCheckMs, oSeen = lastSeenMs;
+        double[] oX = anchorX, oY = anchorY, oZ = anchorZ;
+        long[]   oBlockers = blockers;
+        double[] oRef = blockRef;
+
+        allocate(capacity);
+        for (int i = 0; i < oKeys.length; i++) {
+            long key = oKeys[i];
+            if (key == EMPTY_KEY) continue;
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY_KEY) slot = (slot + 1) & mask;
+            keys[slot]        = key;
+            flags[slot]       = oFlags[i];
+            hideConfirm[slot] = oHide[i];
+            lastCheckMs[slot] = oCheck[i];
+            lastSeenMs[slot]  = oSeen[i];
+            anchorX[slot] = oX[i]; anchorY[slot] = oY[i]; anchorZ[slot] = oZ[i];
+            System.arraycopy(oBlockers, i * RAYS, blockers, slot * RAYS, RAYS);
+            System.arraycopy(oRef, i * 6, blockRef, slot * 6, 6);
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,50 @@
+package com.wzz.better_entity_render.occlusion;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+/**
+ * 遮挡剔除统计（仅主线程），用于对比两种引擎。
+ * 开启 occlusion.stats 后每 {@link #LOG_INTERVAL_MS} 输出一次：
+ * 每帧检测数、剔除比例、每帧准备耗时、单次检测平均耗时。
+ */
+public final class OcclusionStats {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final long LOG_INTERVAL_MS = 5_000;
+
+    private static long frames, tests, culled;
+    private static long frameNanos, testNanos;
+    private static long lastLogMs;
+
+    private OcclusionStats() {}
+
+    public static void recordTest(boolean visible, long nanos) {
+        tests++;
+        if (!visible) culled++;
+        testNanos += nanos;
+    }
+
+    public static void recordFrame(String engine, long nanos) {
+        frames++;
+        frameNanos += nanos;
+
+        long now = System.currentTimeMillis();
+        if (lastLogMs == 0) {
+            lastLogMs = now;
+            return;
+        }
+        if (now - lastLogMs < LOG_INTERVAL_MS) return;
+
+        LOGGER.info("Occlusion [{}]: {} frames, {} tests/frame, {}% culled, prepare {} us/frame, test {} ns avg",
+                engine, frames,
+                tests / frames,
+                tests == 0 ? 0 : culled * 100 / tests,
+                frameNanos / frames / 1000,
+                tests == 0 ? 0 : testNanos / tests);
+
+        frames = tests = culled = 0;
+        frameNanos = testNanos = 0;
+        lastLogMs = now;
+    }
+}
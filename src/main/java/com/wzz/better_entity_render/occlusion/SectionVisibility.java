@@ -0,0 +1,108 @@
+package com.wzz.better_entity_render.occlusion;
+
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.Level;
+
+import java.util.Arrays;
+
+/**
+ * 渲染器 section 连通性的逐帧快照（仅主线程）。
+ *
+ * 原版 LevelRenderer 每帧从相机所在 section 出发，按各 section 编译时算出的 VisibilitySet
+ * （六个面之间是否互相连通）做洪泛，再按视锥裁剪成 renderChunksInFrustum。
+ * setupRender 结束后把该列表记成以相机 section 为中心的位图：
+ * 检测盒覆盖的 section 都不在其中时洪泛到不了，不必再做射线检测。
+ *
+ * 以下情况按可达处理，交给射线检测：
+ *   - 本帧列表不含相机所在 section（其他模组接管了地形渲染、传送后洪泛尚未完成）
+ *   - section 在世界高度之外，或在最外一圈渲染距离之外（邻居未加载的 section 不参与洪泛）
+ */
+public final class SectionVisibility {
+
+    // 检测盒外扩，与原版实体视锥检测一致
+    private static final double MARGIN       = 0.5;
+    // 检测盒覆盖的 section 数超过该值时不查表
+    private static final int    MAX_SECTIONS = 64;
+
+    private static long[]  bits = new long[0];
+    private static Level   level;
+    private static boolean valid;
+
+    // 位图覆盖 [originX, originX + side) x [minSection, minSection + height) x [originZ, originZ + side)
+    private static int originX, originZ, side;
+    private static int minSection, height;
+    private static int camSectionX, camSectionY, camSectionZ;
+
+    private SectionVisibility() {}
+
+    /** setupRender 之后调用：清空位图，以相机 section 为中心重新定位 */
+    public static void begin(Level level, double camX, double camY, double camZ, int renderDistance) {
+        int radius = Math.max(1, renderDistance - 1);
+        camSectionX = SectionPos.blockToSectionCoord(camX);
+        camSectionY = SectionPos.blockToSectionCoord(camY);
+        camSectionZ = SectionPos.blockToSectionCoord(camZ);
+
+        SectionVisibility.level = level;
+        originX    = camSectionX - radius;
+        originZ    = camSectionZ - radius;
+        side       = radius * 2 + 1;
+        minSection = level.getMinSection();
+        height     = level.getSectionsCount();
+
+        int words = (side * side * height + 63) >>> 6;
+        if (bits.length < words) {
+            bits = new long[words];
+        } else {
+            Arrays.fill(bits, 0, words, 0L);
+        }
+        valid = false;
+    }
+
+    /** 记录一个洪泛可达的 section */
+    public static void mark(int sx, int sy, int sz) {
+        int idx = index(sx, sy, sz);
+        if (idx >= 0) bits[idx >>> 6] |= 1L << idx;
+    }
+
+    /** 全部 section 记录完毕；相机 section 不在列表中时本帧不使用 */
+    public static void end() {
+        int idx = index(camSectionX, camSectionY, camSectionZ);
+        // 相机在世界高度之外时原版从边界层开始洪泛，不要求相机 section 在列表中
+        valid = idx < 0 ? camSectionY < minSection || camSectionY >= minSection + height
+                        : (bits[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    public static void clear() {
+        level = null;
+        valid = false;
+    }
+
+    /** @return 检测盒覆盖的 section 均确定不可达 */
+    public static boolean isUnreachable(Level level,
+                                        double minX, double minY, double minZ,
+                                        double maxX, double maxY, double maxZ) {
+        if (!valid || level != SectionVisibility.level) return false;
+
+        int x0 = SectionPos.blockToSectionCoord(minX - MARGIN), x1 = SectionPos.blockToSectionCoord(maxX + MARGIN);
+        int y0 = SectionPos.blockToSectionCoord(minY - MARGIN), y1 = SectionPos.blockToSectionCoord(maxY + MARGIN);
+        int z0 = SectionPos.blockToSectionCoord(minZ - MARGIN), z1 = SectionPos.blockToSectionCoord(maxZ + MARGIN);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1) > MAX_SECTIONS) return false;
+
+        for (int sy = y0; sy <= y1; sy++) {
+            for (int sz = z0; sz <= z1; sz++) {
+                for (int sx = x0; sx <= x1; sx++) {
+                    int idx = index(sx, sy, sz);
+                    if (idx < 0 || (bits[idx >>> 6] & (1L << idx)) != 0) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return 位图下标，超出覆盖范围返回 -1 */
+    private static int index(int sx, int sy, int sz) {
+        int x = sx - originX, y = sy - minSection, z = sz - originZ;
+        if (x < 0 || x >= side || z < 0 || z >= side || y < 0 || y >= height) return -1;
+        return (y * side + z) * side + x;
+    }
+}
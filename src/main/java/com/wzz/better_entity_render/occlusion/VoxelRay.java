@@ -0,0 +1,126 @@
+package com.wzz.better_entity_render.occlusion;
+
+/**
+ * Amanatides &amp; Woo 体素遍历游标（可复用，非线程安全）。
+ *
+ * 从起点所在体素出发，按射线经过的顺序逐个给出中间体素，
+ * 起点体素和终点体素本身都不会返回（与 native 版本一致）。
+ * 每个轴剩余步数单独计数，浮点误差不会导致越过终点或死循环。
+ */
+final class VoxelRay {
+
+    int x, y, z;
+    // 进入当前体素时穿过的面（bit 0..5 = -X +X -Y +Y -Z +Z，与 OccluderTable 一致）
+    int face;
+
+    private int    stepX, stepY, stepZ;
+    private int    remX, remY, remZ;
+    private double tMaxX, tMaxY, tMaxZ;
+    private double tDeltaX, tDeltaY, tDeltaZ;
+
+    void init(double ox, double oy, double oz, double tx, double ty, double tz) {
+        x = floor(ox);
+        y = floor(oy);
+        z = floor(oz);
+
+        double dx = tx - ox, dy = ty - oy, dz = tz - oz;
+        stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+        stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+        stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+
+        remX = Math.abs(floor(tx) - x);
+        remY = Math.abs(floor(ty) - y);
+        remZ = Math.abs(floor(tz) - z);
+
+        tDeltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        tDeltaY = stepY != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        tDeltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+
+        tMaxX = boundary(ox, x, stepX, tDeltaX);
+        tMaxY = boundary(oy, y, stepY, tDeltaY);
+        tMaxZ = boundary(oz, z, stepZ, tDeltaZ);
+    }
+
+    /**
+     * 前进到下一个中间体素。
+     * @return false 表示下一格就是终点体素（或起点即终点），遍历结束
+     */
+    boolean advance() {
+        if (remX + remY + remZ <= 1) return false;
+
+        // 只在仍有剩余步数的轴中选 tMax 最小者
+        double bx = remX > 0 ? tMaxX : Double.POSITIVE_INFINITY;
+        double by = remY > 0 ? tMaxY : Double.POSITIVE_INFINITY;
+        double bz = remZ > 0 ? tMaxZ : Double.POSITIVE_INFINITY;
+
+        if (bx <= by && bx <= bz) {
+            x += stepX; remX--; tMaxX += tDeltaX;
+            face = stepX > 0 ? 1 : 2;
+        } else if (by <= bz) {
+            y += stepY; remY--; tMaxY += tDeltaY;
+            face = stepY > 0 ? 4 : 8;
+        } else {
+            z += stepZ; remZ--; tMaxZ += tDeltaZ;
+            face = stepZ > 0 ? 16 : 32;
+        }
+        return true;
+    }
+
+    /**
+     * 当前体素所在的 2^shift 对齐立方体已知为空时，直接跳到射线在该立方体内经过的最后一个体素，
+     * 下一次 {@link #advance} 即进入相邻立方体。跳过的体素都在空立方体内，不影响遮挡结果。
+     * @return false 表示终点体素就在该立方体内，射线已畅通到达终点
+     */
+    boolean skipCell(int shift) {
+        int ex = x + stepX * remX, ey = y + stepY * remY, ez = z + stepZ * remZ;
+        if ((ex >> shift) == (x >> shift) && (ey >> shift) == (y >> shift) && (ez >> shift) == (z >> shift)) {
+            return false;
+        }
+
+        int mask = (1 << shift) - 1;
+        int inX  = inside(x, stepX, mask), inY = inside(y, stepY, mask), inZ = inside(z, stepZ, mask);
+
+        // 射线离开立方体的参数 t：最先到达立方体边界的轴
+        double tExit = Math.min(tMaxX + inX * tDeltaX, Math.min(tMaxY + inY * tDeltaY, tMaxZ + inZ * tDeltaZ));
+
+        // 每个轴在 tExit 之前的越界次数，限制在立方体内和剩余步数内
+        int kx = Math.min(crossings(tMaxX, tDeltaX, tExit, inX), remX);
+        int ky = Math.min(crossings(tMaxY, tDeltaY, tExit, inY), remY);
+        int kz = Math.min(crossings(tMaxZ, tDeltaZ, tExit, inZ), remZ);
+
+        x += stepX * kx; remX -= kx; tMaxX += kx * tDeltaX;
+        y += stepY * ky; remY -= ky; tMaxY += ky * tDeltaY;
+        z += stepZ * kz; remZ -= kz; tMaxZ += kz * tDeltaZ;
+        face = 0;
+        return true;
+    }
+
+    /** 沿 step 方向仍留在立方体内的步数 */
+    private static int inside(int cell, int step, int mask) {
+        if (step > 0) return mask - (cell & mask);
+        if (step < 0) return cell & mask;
+        return 0;
+    }
+
+    private static int crossings(double tMax, double tDelta, double tExit, int limit) {
+        if (tMax >= tExit) return 0;
+        return (int) Math.min(Math.ceil((tExit - tMax) / tDelta), limit);
+    }
+
+    /** 与 face 相对的面：穿出上一个体素时经过的面 */
+    static int opposite(int face) {
+        // -X/+X、-Y/+Y、-Z/+Z 各占相邻两位
+        return ((face & 0x15) << 1) | ((face & 0x2A) >>> 1);
+    }
+
+    private static double boundary(double origin, int cell, int step, double tDelta) {
+        if (step > 0) return (cell + 1 - origin) * tDelta;
+        if (step < 0) return (origin - cell) * tDelta;
+        return Double.POSITIVE_INFINITY;
+    }
+
+    static int floor(double v) {
+        int i = (int) v;
+        return v < i ? i - 1 : i;
+    }
+}
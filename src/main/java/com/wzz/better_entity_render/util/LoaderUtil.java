@@ -1,42 +1,141 @@
 package com.wzz.better_entity_render.util;
 
-import java.io.File;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * native 库加载。
+ *
+ * 资源按平台存放在 /natives/&lt;os&gt;-&lt;arch&gt;/ 下（如 windows-x86_64/better_entity_render.dll、
+ * linux-x86_64/libbetter_entity_render.so、macos-aarch64/libbetter_entity_render.dylib）。
+ * 首次加载时按内容 SHA-256 解压到缓存目录，之后启动直接复用，不再每次写临时文件。
+ * 缓存目录默认为 java.io.tmpdir/better_entity_render/natives，可用系统属性
+ * {@value #CACHE_DIR_PROPERTY} 覆盖。
+ */
 public class LoaderUtil  {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    public static final String CACHE_DIR_PROPERTY = "better_entity_render.nativeDir";
+
     private static final Map<String, String> loadedLibraries = new ConcurrentHashMap<>();
+    // 子系统 -> 实际使用的后端（"native" / "java"），按登记顺序
+    private static final Map<String, String> backends = Collections.synchronizedMap(new LinkedHashMap<>());
 
     public static void load(String name) {
-        loadNative("/" + name);
+        loadNative(name);
     }
 
+    /**
+     * 加载当前平台对应的 native 库。
+     * @return 加载的库文件绝对路径；当前平台无对应资源或加载失败时返回 null
+     */
     public static String loadNative(String name) {
-        if (!OSHelper.isWindows())
-            return "";
-        if (loadedLibraries.containsKey(name)) {
-            return loadedLibraries.get(name);
-        }
-        char[] chars = {0x2E, 0x64, 0x6C, 0x6C};
-        String full = new String(chars);
-        if (name.endsWith(full)) name = name.replace(full, "");
-        try (InputStream inputStream = LoaderUtil.class.getResourceAsStream(name + full)) {
+        if (name.startsWith("/")) name = name.substring(1);
+        String cached = loadedLibraries.get(name);
+        if (cached != null) return cached;
+
+        String fileName = mapLibraryName(name);
+        String resource = "/natives/" + platformId() + "/" + fileName;
+        try (InputStream inputStream = LoaderUtil.class.getResourceAsStream(resource)) {
             if (inputStream == null) {
-                throw new UnsatisfiedLinkError("Native resource not found: " + name + full);
+                LOGGER.info("No native library for {} ({}), using Java implementation", platformId(), resource);
+                return null;
             }
-            int lastSlashIndex = name.lastIndexOf('/');
-            File tempFile = File.createTempFile(name.substring(lastSlashIndex + 1), full);
-            Files.copy(inputStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            tempFile.deleteOnExit();
-            Runtime.getRuntime().load(tempFile.getAbsolutePath());
-            loadedLibraries.put(name, tempFile.getAbsolutePath());
-            return tempFile.getAbsolutePath();
+            byte[] bytes = inputStream.readAllBytes();
+            Path file = extract(fileName, bytes);
+            System.load(file.toAbsolutePath().toString());
+            String path = file.toAbsolutePath().toString();
+            loadedLibraries.put(name, path);
+            return path;
         } catch (Throwable ex) {
-            System.err.println("Failed to load native library: " + name + " " + ex.getMessage());
+            LOGGER.warn("Failed to load native library {}: {}", resource, ex.toString());
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /** 记录子系统最终使用的后端，并输出日志 */
+    public static void reportBackend(String subsystem, boolean nativeBackend) {
+        String backend = nativeBackend ? "native" : "java";
+        backends.put(subsystem, backend);
+        LOGGER.info("{} backend: {}", subsystem, backend);
+    }
+
+    /** 子系统 -> 后端（"native" / "java"） */
+    public static Map<String, String> getBackends() {
+        synchronized (backends) {
+            return new LinkedHashMap<>(backends);
+        }
+    }
+
+    static String platformId() {
+        String os = OSHelper.isWindows() ? "windows" : OSHelper.isMac() ? "macos" : OSHelper.isLinux() ? "linux" : "unknown";
+        return os + "-" + OSHelper.getArch();
+    }
+
+    static String mapLibraryName(String name) {
+        if (OSHelper.isWindows()) return name + ".dll";
+        if (OSHelper.isMac()) return "lib" + name + ".dylib";
+        return "lib" + name + ".so";
+    }
+
+    /** 解压到 cacheDir/&lt;hash&gt;/fileName；已存在且内容一致则直接复用 */
+    private static Path extract(String fileName, byte[] bytes) throws IOException, NoSuchAlgorithmException {
+        String hash = sha256(bytes);
+        Path dir    = cacheDir().resolve(hash.substring(0, 16));
+        Path target = dir.resolve(fileName);
+
+        if (Files.isRegularFile(target) && Files.size(target) == bytes.length
+                && hash.equals(sha256(Files.readAllBytes(target)))) {
+            return target;
+        }
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, fileName, ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Windows 上目标库可能正被另一个实例占用；内容一致时可直接使用
+            if (Files.isRegularFile(target) && hash.equals(sha256(Files.readAllBytes(target)))) {
+                return target;
+            }
+            throw e;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return target;
+    }
+
+    private static Path cacheDir() {
+        String override = System.getProperty(CACHE_DIR_PROPERTY);
+        if (override != null && !override.isEmpty()) return Paths.get(override);
+        return Paths.get(System.getProperty("java.io.tmpdir"), "better_entity_render", "natives");
+    }
+
+    private static String sha256(byte[] bytes) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
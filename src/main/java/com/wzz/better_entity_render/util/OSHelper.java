@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 public class OSHelper {
     private static final String OS_NAME;
     private static final String VENDOR;
+    private static final String ARCH;
     private static final boolean IS_WINDOWS;
     private static final boolean IS_LINUX;
     private static final boolean IS_MAC;
@@ -16,6 +17,7 @@ public class OSHelper {
     static {
         OS_NAME = System.getProperty("os.name", "").toLowerCase();
         VENDOR = System.getProperty("java.vendor", "").toLowerCase();
+        ARCH = normalizeArch(System.getProperty("os.arch", "").toLowerCase());
         IS_WINDOWS = OS_NAME.contains("win");
         IS_LINUX = OS_NAME.contains("nux") || OS_NAME.contains("nix");
         IS_MAC = OS_NAME.contains("mac");
@@ -42,6 +44,31 @@ public class OSHelper {
         return VENDOR;
     }
 
+    /** 归一化的 CPU 架构：x86_64 / aarch64 / x86 / arm，其余原样返回 */
+    public static String getArch() {
+        return ARCH;
+    }
+
+    private static String normalizeArch(String arch) {
+        switch (arch) {
+            case "amd64":
+            case "x86_64":
+            case "x64":
+                return "x86_64";
+            case "aarch64":
+            case "arm64":
+                return "aarch64";
+            case "x86":
+            case "i386":
+            case "i486":
+            case "i586":
+            case "i686":
+                return "x86";
+            default:
+                return arch.startsWith("arm") ? "arm" : arch;
+        }
+    }
+
     public static boolean isWindows() {
         return IS_WINDOWS;
     }